@@ -1,9 +1,9 @@
 package cse340.undo.actions;
 
 import android.support.annotation.CallSuper;
-import android.util.Log;
 
 import cse340.undo.app.DrawingView;
+import cse340.undo.app.Tracer;
 
 /**
  * Represents any action which can be performed on a DrawingView. To make a new action, subclass
@@ -13,8 +13,6 @@ import cse340.undo.app.DrawingView;
  * @see AbstractAction#doAction(DrawingView)
  */
 public abstract class AbstractAction {
-    final String LOG_TAG = "ACTION/" + getClass().getCanonicalName();
-
     /**
      * Applies this action to the given DrawingView.
      *
@@ -22,7 +20,9 @@ public abstract class AbstractAction {
      */
     @CallSuper
     public void doAction(DrawingView view) {
-        Log.i(LOG_TAG, "Doing: " + toString());
+        if (Tracer.ENABLED) {
+            Tracer.action(Tracer.Event.ACTION_DO, this);
+        }
     }
 
     /**
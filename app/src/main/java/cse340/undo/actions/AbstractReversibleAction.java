@@ -1,9 +1,9 @@
 package cse340.undo.actions;
 
 import android.support.annotation.CallSuper;
-import android.util.Log;
 
 import cse340.undo.app.DrawingView;
+import cse340.undo.app.Tracer;
 
 /**
  * An extension of a normal AbstractAction which adds the ability to reverse the action on a DrawingView.
@@ -15,6 +15,9 @@ import cse340.undo.app.DrawingView;
  * @see AbstractReversibleAction#undoAction(DrawingView)
  */
 public abstract class AbstractReversibleAction extends AbstractAction {
+    /** Approximate bytes retained by any action: object header, fields and log tag. */
+    protected static final int BASE_RETAINED_SIZE = 96;
+
     /** Whether or not this action is currently done (a.k.a. not undone). */
     private boolean mDone;
 
@@ -25,6 +28,17 @@ public abstract class AbstractReversibleAction extends AbstractAction {
         return mDone;
     }
 
+    /**
+     * Restores whether this action is done without applying it, for actions rebuilt from storage
+     * whose effects are already (or not) present on the DrawingView.
+     *
+     * @param done  True if the action has been done, false otherwise.
+     * @see ActionCodec
+     */
+    void restoreDone(boolean done) {
+        mDone = done;
+    }
+
     /**
      * Does this action, which is guaranteed to have occurred, to the given DrawingView.
      *
@@ -53,10 +67,35 @@ public abstract class AbstractReversibleAction extends AbstractAction {
             throw new IllegalStateException("Trying to undo action which hasn't been done: " + toString());
         }
 
-        Log.i(LOG_TAG, "Undoing: " + toString());
+        if (Tracer.ENABLED) {
+            Tracer.action(Tracer.Event.ACTION_UNDO, this);
+        }
         mDone = false;
     }
 
+    /**
+     * Estimates how many bytes of memory this action keeps alive while it is stored in a history.
+     * Actions holding large objects (paths, paints, views) should override this. The estimate must
+     * not change while the action is in a history, except when another action is merged into it.
+     *
+     * @return Approximate retained size of this action, in bytes.
+     */
+    public int getRetainedSize() {
+        return BASE_RETAINED_SIZE;
+    }
+
+    /**
+     * Tries to fold an action that was done right after this one into this action, so that both
+     * are undone and redone as a single history entry. The merged action keeps the state this
+     * action changed from and takes on the state next changed to. By default, actions don't merge.
+     *
+     * @param next  Action which was done immediately after this one.
+     * @return True if next was merged into this action and should not be added to the history.
+     */
+    public boolean tryMerge(AbstractReversibleAction next) {
+        return false;
+    }
+
     /** @inheritDoc */
     @Override
     public abstract String toString();
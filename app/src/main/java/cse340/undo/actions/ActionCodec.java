@@ -0,0 +1,312 @@
+package cse340.undo.actions;
+
+import android.graphics.Paint;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cse340.undo.app.PaintStyle;
+
+/**
+ * Compact binary encoding of the reversible actions, used to keep them outside of the Java heap.
+ * Each record is a type tag and whether the action is done, followed by the fields the action needs
+ * to be undone or redone. Decoded actions are not applied again; their effects are assumed to
+ * already be present (or absent) on the DrawingView, exactly as when they were encoded.
+ *
+ * Strokes are stored as their paint style and exact points. When every step between consecutive
+ * points fits, the points are quantized to 1/QUANTIZATION of a pixel and stored as 16-bit steps,
+ * which halves their size without any visible change. Strokes written by older versions as points
+ * sampled along their path are still read, using the samples as the stroke's points.
+ * Composite actions are stored as their number of children followed by each child's record.
+ */
+public final class ActionCodec {
+    /** Type tags of the supported actions. */
+    private static final byte TYPE_SAMPLED_STROKE = 1, TYPE_COLOR = 2, TYPE_THICKNESS = 3,
+            TYPE_ERASE = 4, TYPE_COMPOSITE = 5, TYPE_STROKE = 6;
+
+    /** Formats of a stroke's points. */
+    private static final byte POINTS_FLOAT = 0, POINTS_QUANTIZED = 1;
+
+    /** Steps per pixel of quantized points. */
+    private static final int QUANTIZATION = 16;
+
+    /** Flags for boolean paint properties. */
+    private static final byte FLAG_ANTI_ALIAS = 1, FLAG_DITHER = 2;
+
+    private ActionCodec() {
+    }
+
+    /**
+     * Can the given action be encoded?
+     *
+     * @param action    Action to check.
+     * @return True if encode supports the action, false otherwise.
+     */
+    public static boolean canEncode(AbstractReversibleAction action) {
+        Class<?> type = action.getClass();
+        if (type == CompositeAction.class) {
+            for (AbstractReversibleAction child : ((CompositeAction) action).getActions()) {
+                if (!canEncode(child)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return type == StrokeAction.class || type == ChangeColorAction.class
+                || type == ChangeThicknessAction.class || type == EraseAction.class;
+    }
+
+    /**
+     * Writes an action.
+     *
+     * @param action    Action to encode.
+     * @param out   Destination of the encoded action.
+     * @throws IOException if out can't be written.
+     * @throws IllegalArgumentException if the action can't be encoded.
+     */
+    public static void encode(AbstractReversibleAction action, DataOutput out) throws IOException {
+        Class<?> type = action.getClass();
+        if (type == StrokeAction.class) {
+            out.writeByte(TYPE_STROKE);
+            out.writeBoolean(action.isDone());
+            encodeStroke((StrokeAction) action, out);
+        } else if (type == ChangeColorAction.class) {
+            ChangeColorAction color = (ChangeColorAction) action;
+            out.writeByte(TYPE_COLOR);
+            out.writeBoolean(action.isDone());
+            out.writeInt(color.mColor);
+            out.writeInt(color.mPrev);
+        } else if (type == ChangeThicknessAction.class) {
+            ChangeThicknessAction thickness = (ChangeThicknessAction) action;
+            out.writeByte(TYPE_THICKNESS);
+            out.writeBoolean(action.isDone());
+            out.writeInt(thickness.mThickness);
+            out.writeFloat(thickness.mPrev);
+        } else if (type == EraseAction.class) {
+            out.writeByte(TYPE_ERASE);
+            out.writeBoolean(action.isDone());
+            out.writeInt(((EraseAction) action).mPrev);
+        } else if (type == CompositeAction.class) {
+            List<AbstractReversibleAction> children = ((CompositeAction) action).getActions();
+            out.writeByte(TYPE_COMPOSITE);
+            out.writeBoolean(action.isDone());
+            out.writeInt(children.size());
+            for (AbstractReversibleAction child : children) {
+                encode(child, out);
+            }
+        } else {
+            throw new IllegalArgumentException("Can't encode action: " + action);
+        }
+    }
+
+    /**
+     * Reads an action written by encode.
+     *
+     * @param in    Source of the encoded action.
+     * @return The decoded action, done or undone as when it was encoded.
+     * @throws IOException if in can't be read or holds an unknown action.
+     */
+    public static AbstractReversibleAction decode(DataInput in) throws IOException {
+        byte type = in.readByte();
+        boolean done = in.readBoolean();
+
+        AbstractReversibleAction action;
+        switch (type) {
+            case TYPE_STROKE:
+                action = decodeStroke(in);
+                break;
+            case TYPE_SAMPLED_STROKE:
+                action = decodeSampledStroke(in);
+                break;
+            case TYPE_COLOR:
+                ChangeColorAction color = new ChangeColorAction(in.readInt());
+                color.mPrev = in.readInt();
+                action = color;
+                break;
+            case TYPE_THICKNESS:
+                ChangeThicknessAction thickness = new ChangeThicknessAction(in.readInt());
+                thickness.mPrev = in.readFloat();
+                action = thickness;
+                break;
+            case TYPE_ERASE:
+                EraseAction erase = new EraseAction();
+                erase.mPrev = in.readInt();
+                action = erase;
+                break;
+            case TYPE_COMPOSITE:
+                int count = in.readInt();
+                if (count <= 0) {
+                    throw new IOException("Illegal composite size: " + count);
+                }
+                List<AbstractReversibleAction> children = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    children.add(decode(in));
+                }
+                try {
+                    action = new CompositeAction(children);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Illegal composite", e);
+                }
+                break;
+            default:
+                throw new IOException("Unknown action type: " + type);
+        }
+
+        action.restoreDone(done);
+        return action;
+    }
+
+    /**
+     * Reads an action written by encode as if it had never been done, so that it can be applied to
+     * a DrawingView again (for example, when replaying a journal).
+     *
+     * @param in    Source of the encoded action.
+     * @return The decoded action, undone.
+     * @throws IOException if in can't be read or holds an unknown action.
+     */
+    public static AbstractReversibleAction decodeUndone(DataInput in) throws IOException {
+        AbstractReversibleAction action = decode(in);
+        resetDone(action);
+        return action;
+    }
+
+    /**
+     * Marks an action, and every action it groups, as not done.
+     */
+    private static void resetDone(AbstractReversibleAction action) {
+        if (action instanceof CompositeAction) {
+            for (AbstractReversibleAction child : ((CompositeAction) action).getActions()) {
+                resetDone(child);
+            }
+        }
+        action.restoreDone(false);
+    }
+
+    /**
+     * Writes a stroke's id, style and points. The points are a count, a format, and either every
+     * coordinate as a float, or the first point in quantization steps followed by the steps to
+     * each next point as shorts.
+     */
+    private static void encodeStroke(StrokeAction stroke, DataOutput out) throws IOException {
+        out.writeInt(stroke.getId());
+        encodeStyle(stroke.getStyle(), out);
+
+        int count = stroke.getPointCount();
+        float[] points = stroke.getPoints();
+        out.writeInt(count);
+
+        int[] quantized = new int[count * 2];
+        boolean fits = true;
+        for (int i = 0; i < count * 2; i++) {
+            quantized[i] = Math.round(points[i] * QUANTIZATION);
+            if (i >= 2 && (short) (quantized[i] - quantized[i - 2]) != quantized[i] - quantized[i - 2]) {
+                fits = false;
+                break;
+            }
+        }
+
+        if (fits) {
+            out.writeByte(POINTS_QUANTIZED);
+            out.writeInt(quantized[0]);
+            out.writeInt(quantized[1]);
+            for (int i = 2; i < count * 2; i++) {
+                out.writeShort(quantized[i] - quantized[i - 2]);
+            }
+        } else {
+            out.writeByte(POINTS_FLOAT);
+            for (int i = 0; i < count * 2; i++) {
+                out.writeFloat(points[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a stroke written by encodeStroke.
+     */
+    private static StrokeAction decodeStroke(DataInput in) throws IOException {
+        int id = in.readInt();
+        PaintStyle style = decodeStyle(in);
+
+        int count = in.readInt();
+        if (count <= 0) {
+            throw new IOException("Illegal point count: " + count);
+        }
+        float[] points = new float[count * 2];
+        byte format = in.readByte();
+        if (format == POINTS_QUANTIZED) {
+            int x = in.readInt();
+            int y = in.readInt();
+            points[0] = (float) x / QUANTIZATION;
+            points[1] = (float) y / QUANTIZATION;
+            for (int i = 2; i < count * 2; i += 2) {
+                x += in.readShort();
+                y += in.readShort();
+                points[i] = (float) x / QUANTIZATION;
+                points[i + 1] = (float) y / QUANTIZATION;
+            }
+        } else if (format == POINTS_FLOAT) {
+            for (int i = 0; i < count * 2; i++) {
+                points[i] = in.readFloat();
+            }
+        } else {
+            throw new IOException("Unknown point format: " + format);
+        }
+
+        return new StrokeAction(id, points, style);
+    }
+
+    /**
+     * Reads a stroke written by older versions as contours of points sampled along its path. Each
+     * contour is a point count followed by the points, and the contours end with a count of zero.
+     * The samples of every contour become the stroke's points.
+     */
+    private static StrokeAction decodeSampledStroke(DataInput in) throws IOException {
+        int id = in.readInt();
+        PaintStyle style = decodeStyle(in);
+
+        float[] points = new float[0];
+        for (int samples = in.readInt(); samples > 0; samples = in.readInt()) {
+            int from = points.length;
+            points = Arrays.copyOf(points, from + samples * 2);
+            for (int i = from; i < points.length; i++) {
+                points[i] = in.readFloat();
+            }
+        }
+        if (points.length == 0) {
+            throw new IOException("Stroke without points");
+        }
+
+        return new StrokeAction(id, points, style);
+    }
+
+    /**
+     * Writes the properties of a stroke's style. Style identifiers are only valid within the
+     * process, so the properties themselves are stored.
+     */
+    private static void encodeStyle(PaintStyle style, DataOutput out) throws IOException {
+        out.writeInt(style.getColor());
+        out.writeFloat(style.getWidth());
+        out.writeByte(style.getStyle().ordinal());
+        out.writeByte(style.getCap().ordinal());
+        out.writeByte(style.getJoin().ordinal());
+        out.writeByte((style.isAntiAlias() ? FLAG_ANTI_ALIAS : 0) | (style.isDither() ? FLAG_DITHER : 0));
+    }
+
+    /**
+     * Reads a style written by encodeStyle, as the shared interned style.
+     */
+    private static PaintStyle decodeStyle(DataInput in) throws IOException {
+        int color = in.readInt();
+        float width = in.readFloat();
+        Paint.Style style = Paint.Style.values()[in.readByte()];
+        Paint.Cap cap = Paint.Cap.values()[in.readByte()];
+        Paint.Join join = Paint.Join.values()[in.readByte()];
+        byte flags = in.readByte();
+        return PaintStyle.intern(color, width, style, cap, join, (flags & FLAG_ANTI_ALIAS) != 0,
+                (flags & FLAG_DITHER) != 0);
+    }
+}
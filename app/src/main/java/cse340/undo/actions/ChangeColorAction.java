@@ -1,19 +1,19 @@
 package cse340.undo.actions;
 
 import android.graphics.Color;
-import android.graphics.Paint;
 import android.support.annotation.ColorInt;
 import android.support.annotation.NonNull;
 
 import cse340.undo.app.DrawingView;
+import cse340.undo.app.PaintStyle;
 
 /**
- * Reversible action which changes the color of the DrawingView's paint.
+ * Reversible action which changes the color of the DrawingView's paint style.
  */
 public class ChangeColorAction extends AbstractReversibleAction {
     /** The color that this action changes the current paint to. */
     @ColorInt
-    protected final int mColor;
+    protected int mColor;
 
     /** The color that this action changes the current paint from. */
     @ColorInt
@@ -32,16 +32,32 @@ public class ChangeColorAction extends AbstractReversibleAction {
     @Override
     public void doAction(DrawingView view) {
         super.doAction(view);
-        Paint cur = view.getCurrentPaint();
+        PaintStyle cur = view.getCurrentStyle();
         mPrev = cur.getColor();
-        cur.setColor(mColor);
+        view.setCurrentStyle(cur.withColor(mColor));
     }
 
     /** @inheritDoc */
     @Override
     public void undoAction(DrawingView view) {
         super.undoAction(view);
-        view.getCurrentPaint().setColor(mPrev);
+        view.setCurrentStyle(view.getCurrentStyle().withColor(mPrev));
+    }
+
+    /**
+     * Merges a following color change, so scrubbing the color wheel is a single history entry.
+     *
+     * @param next  Action which was done immediately after this one.
+     * @return True if next was a color change and was merged into this action.
+     */
+    @Override
+    public boolean tryMerge(AbstractReversibleAction next) {
+        if (!(next instanceof ChangeColorAction) || !isDone() || !next.isDone()) {
+            return false;
+        }
+
+        mColor = ((ChangeColorAction) next).mColor;
+        return true;
     }
 
     @NonNull
@@ -1,19 +1,19 @@
 package cse340.undo.actions;
 
-import android.graphics.Paint;
 import android.support.annotation.NonNull;
 
 import cse340.undo.app.DrawingView;
+import cse340.undo.app.PaintStyle;
 
 /**
  * Reversible action which changes the thickness of the DrawingView's paint.
  */
 public class ChangeThicknessAction extends AbstractReversibleAction {
     /** The thickness that this action changes the current paint to. */
-    private final int mThickness;
+    int mThickness;
 
     /** The thickness that this action changes the current paint from. */
-    private float mPrev;
+    float mPrev;
 
     /**
      * Creates an action that changes the paint thickness.
@@ -30,9 +30,9 @@ public class ChangeThicknessAction extends AbstractReversibleAction {
         // TODO: update the thickness in the view
         // TODO: store any information you'll need to undo this later
         // TODO: don't store any information you won't need
-        Paint cur = view.getCurrentPaint();
-        mPrev = cur.getStrokeWidth();
-        cur.setStrokeWidth(mThickness);
+        PaintStyle cur = view.getCurrentStyle();
+        mPrev = cur.getWidth();
+        view.setCurrentStyle(cur.withWidth(mThickness));
     }
 
     /** @inheritDoc */
@@ -40,7 +40,23 @@ public class ChangeThicknessAction extends AbstractReversibleAction {
     public void undoAction(DrawingView view) {
         super.undoAction(view);
         // TODO: update the thickness in the view
-        view.getCurrentPaint().setStrokeWidth(mPrev);
+        view.setCurrentStyle(view.getCurrentStyle().withWidth(mPrev));
+    }
+
+    /**
+     * Merges a following thickness change, so repeated taps are a single history entry.
+     *
+     * @param next  Action which was done immediately after this one.
+     * @return True if next was a thickness change and was merged into this action.
+     */
+    @Override
+    public boolean tryMerge(AbstractReversibleAction next) {
+        if (!(next instanceof ChangeThicknessAction) || !isDone() || !next.isDone()) {
+            return false;
+        }
+
+        mThickness = ((ChangeThicknessAction) next).mThickness;
+        return true;
     }
 
     /** @inheritDoc */
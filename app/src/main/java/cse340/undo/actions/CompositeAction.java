@@ -0,0 +1,146 @@
+package cse340.undo.actions;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import cse340.undo.app.DrawingView;
+
+/**
+ * Reversible action which groups several reversible actions into one, so they are done, undone and
+ * stored in the history as a single unit. Children are done in order and undone in reverse order,
+ * inside a DrawingView batch so the view is laid out and redrawn once.
+ *
+ * @see DrawingView#beginBatch()
+ */
+public class CompositeAction extends AbstractReversibleAction {
+    /** The grouped actions, in the order they are done. */
+    private final List<AbstractReversibleAction> mActions;
+
+    /**
+     * Creates an action that groups the given actions. If the children have already been done (for
+     * example, one by one during a transaction), the composite starts out done as well.
+     *
+     * @param actions   Actions to group, in the order they are done.
+     * @throws IllegalArgumentException if actions is null, empty, or mixes done and undone actions.
+     */
+    public CompositeAction(List<? extends AbstractReversibleAction> actions) {
+        if (actions == null || actions.isEmpty()) {
+            throw new IllegalArgumentException("Null or empty actions");
+        }
+
+        boolean done = actions.get(0).isDone();
+        for (AbstractReversibleAction action : actions) {
+            if (action.isDone() != done) {
+                throw new IllegalArgumentException("Mix of done and undone actions");
+            }
+        }
+
+        this.mActions = new ArrayList<>(actions);
+        restoreDone(done);
+    }
+
+    /**
+     * Does every child action, in order.
+     *
+     * @param view  DrawingView in which to apply this action.
+     */
+    @Override
+    public void doAction(DrawingView view) {
+        super.doAction(view);
+        view.beginBatch();
+        try {
+            for (AbstractReversibleAction action : mActions) {
+                action.doAction(view);
+            }
+        } finally {
+            view.endBatch();
+        }
+    }
+
+    /**
+     * Undoes every child action, in reverse order.
+     *
+     * @param view  DrawingView in which to apply this action.
+     */
+    @Override
+    public void undoAction(DrawingView view) {
+        super.undoAction(view);
+        view.beginBatch();
+        try {
+            for (int i = mActions.size() - 1; i >= 0; i--) {
+                mActions.get(i).undoAction(view);
+            }
+        } finally {
+            view.endBatch();
+        }
+    }
+
+    /**
+     * Merges a following action into this one if both only change the paint (its color, its
+     * thickness or the eraser), so a run of paint changes is a single history entry. Each merged
+     * change is merged into the last child if they allow it (such as two color changes), and
+     * added after it otherwise.
+     *
+     * @param next  Action which was done immediately after this one.
+     * @return True if next was a paint change and was merged into this action.
+     */
+    @Override
+    public boolean tryMerge(AbstractReversibleAction next) {
+        if (!isDone() || !next.isDone() || !changesPaintOnly(this) || !changesPaintOnly(next)) {
+            return false;
+        }
+
+        List<AbstractReversibleAction> changes = next instanceof CompositeAction
+                ? ((CompositeAction) next).mActions : Collections.singletonList(next);
+        for (AbstractReversibleAction change : changes) {
+            if (!mActions.get(mActions.size() - 1).tryMerge(change)) {
+                mActions.add(change);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param action    Action to check.
+     * @return True if the action only changes the paint: it changes the color or thickness, turns
+     * the eraser on or off, or groups such actions.
+     */
+    public static boolean changesPaintOnly(AbstractReversibleAction action) {
+        if (action instanceof CompositeAction) {
+            for (AbstractReversibleAction child : ((CompositeAction) action).mActions) {
+                if (!changesPaintOnly(child)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return action instanceof ChangeColorAction || action instanceof ChangeThicknessAction
+                || action instanceof EraseAction;
+    }
+
+    /**
+     * @return The grouped actions, in the order they are done.
+     */
+    public List<AbstractReversibleAction> getActions() {
+        return Collections.unmodifiableList(mActions);
+    }
+
+    /** @inheritDoc */
+    @Override
+    public int getRetainedSize() {
+        int size = BASE_RETAINED_SIZE;
+        for (AbstractReversibleAction action : mActions) {
+            size += action.getRetainedSize();
+        }
+        return size;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Composite of " + mActions.size() + " actions";
+    }
+}
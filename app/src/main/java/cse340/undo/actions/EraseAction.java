@@ -1,12 +1,12 @@
 package cse340.undo.actions;
 
 import android.graphics.Color;
-import android.graphics.Paint;
 import android.support.annotation.ColorInt;
 import android.support.annotation.NonNull;
 
 import cse340.undo.R;
 import cse340.undo.app.DrawingView;
+import cse340.undo.app.PaintStyle;
 
 /**
  * Reversible action which changes the color of the DrawingView's paint to the background color to erase.
@@ -17,7 +17,7 @@ public class EraseAction extends AbstractReversibleAction {
 
     /** The color that this action changes the current paint from. */
     @ColorInt
-    private int mPrev;
+    int mPrev;
 
     public EraseAction() {    }
 
@@ -25,16 +25,16 @@ public class EraseAction extends AbstractReversibleAction {
     @Override
     public void doAction(DrawingView view) {
         super.doAction(view);
-        Paint cur = view.getCurrentPaint();
+        PaintStyle cur = view.getCurrentStyle();
         mPrev = cur.getColor();
-        cur.setColor(BACKGROUND_COLOR);
+        view.setCurrentStyle(cur.withColor(BACKGROUND_COLOR));
     }
 
     /** @inheritDoc */
     @Override
     public void undoAction(DrawingView view) {
         super.undoAction(view);
-        view.getCurrentPaint().setColor(mPrev);
+        view.setCurrentStyle(view.getCurrentStyle().withColor(mPrev));
     }
 
     @NonNull
@@ -1,42 +1,63 @@
 package cse340.undo.actions;
 
 
-import android.graphics.Paint;
-import android.graphics.Path;
 import android.support.annotation.NonNull;
-import android.view.View;
-import cse340.undo.app.StrokeView;
 import cse340.undo.app.DrawingView;
+import cse340.undo.app.PaintStyle;
+import cse340.undo.app.Stroke;
 
 /**
  * Reversible action which renders a stroke in DrawingView.
  */
 public class StrokeAction extends AbstractReversibleViewAction {
-    /** Path for this stroke. */
-    private final Path mPath;
+    /** Approximate bytes retained by the stroke's rendering (a StrokeView or display list entry). */
+    private static final int VIEW_RETAINED_SIZE = 1024;
 
-    /** Paint used to draw this stroke. */
-    private final Paint mPaint;
+    /** Bytes of the array header of the packed points. */
+    private static final int ARRAY_RETAINED_SIZE = 16;
 
-    /** View being used to render this stroke (or null if not rendered). */
-    private View mStrokeView;
+    /** Identifier for the next stroke created. */
+    private static int sNextId = 1;
+
+    /** Identifier of this stroke, used to unregister it from the view. */
+    private final int mId;
+
+    /** Geometry of this stroke, registered with the view while done. */
+    private final Stroke mStroke;
+
+    /** View rendering this stroke (or null if not rendered). */
+    private DrawingView mView;
 
     /**
-     * Creates an action that renders a stroke.
+     * Creates an action that renders a stroke. Points may be added to the stroke afterwards, while
+     * it is being drawn.
      *
-     * @param path    Path for stroke.
-     * @param paint Paint for stroke.
-     * @throws IllegalArgumentException if stroke or paint are null.
+     * @param points    Points of the stroke, as x and y pairs. Used directly, not copied.
+     * @param style Style for stroke. Styles are immutable, so it is shared rather than copied.
+     * @throws IllegalArgumentException if points or style are null.
+     * @see Stroke#addPoint(float, float)
      */
-    public StrokeAction(Path path, Paint paint) {
-        if (path == null || paint == null) {
-            throw new IllegalStateException("Null stroke or paint");
-        }
+    public StrokeAction(float[] points, PaintStyle style) {
+        this(sNextId, points, style);
+    }
 
-        this.mPath = path;
+    /**
+     * Recreates a stroke action which was stored outside of memory.
+     *
+     * @param id    Identifier of the original stroke.
+     * @param points    Points of the stroke, as x and y pairs.
+     * @param style Style for stroke.
+     * @throws IllegalArgumentException if points or style are null.
+     * @see ActionCodec
+     */
+    StrokeAction(int id, float[] points, PaintStyle style) {
+        if (points == null || style == null) {
+            throw new IllegalStateException("Null stroke or style");
+        }
 
-        // Copy-construct paint to prevent changes to the original object from affecting this.
-        this.mPaint = new Paint(paint);
+        this.mId = id;
+        this.mStroke = new Stroke(id, points, style);
+        sNextId = Math.max(sNextId, id + 1);
     }
 
     /**
@@ -47,8 +68,8 @@ public class StrokeAction extends AbstractReversibleViewAction {
     @Override
     public void doAction(DrawingView view) {
         super.doAction(view);
-        mStrokeView = new StrokeView(view.getContext(), mPath, mPaint);
-        view.addView(mStrokeView);
+        view.addStroke(mStroke);
+        mView = view;
     }
 
     /**
@@ -59,11 +80,11 @@ public class StrokeAction extends AbstractReversibleViewAction {
     @Override
     public void undoAction(DrawingView view) {
         super.undoAction(view);
-        if (view.indexOfChild(mStrokeView) < 0) {
-            throw new IllegalStateException("StrokeView not found");
+        if (!view.removeStroke(mId)) {
+            throw new IllegalStateException("Stroke not found");
         }
 
-        view.removeView(mStrokeView);
+        mView = null;
     }
 
     /**
@@ -71,13 +92,69 @@ public class StrokeAction extends AbstractReversibleViewAction {
      */
     @Override
     public void invalidate() {
-        mStrokeView.invalidate();
+        if (mView != null) {
+            mView.invalidateStroke(mStroke);
+        }
+    }
+
+    /**
+     * @return Identifier of this stroke.
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * @return Geometry of this stroke.
+     */
+    public Stroke getStroke() {
+        return mStroke;
+    }
+
+    /**
+     * @return Number of points in this stroke.
+     */
+    int getPointCount() {
+        return mStroke.getPointCount();
+    }
+
+    /**
+     * @return Points of this stroke, as x and y pairs. Must not be modified.
+     */
+    float[] getPoints() {
+        return mStroke.getPoints();
+    }
+
+    /**
+     * @return Identifier of the shared style used to draw this stroke.
+     */
+    public int getStyleId() {
+        return mStroke.getStyle().getId();
+    }
+
+    /**
+     * @return Style used to draw this stroke.
+     */
+    PaintStyle getStyle() {
+        return mStroke.getStyle();
+    }
+
+    /**
+     * Measures the retained size from the packed points. The path is not counted, since it is
+     * rebuilt from the points and dropped under memory pressure, nor is the style, which is shared.
+     *
+     * @return Approximate retained size of this stroke, in bytes.
+     */
+    @Override
+    public int getRetainedSize() {
+        return BASE_RETAINED_SIZE + VIEW_RETAINED_SIZE
+                + ARRAY_RETAINED_SIZE + mStroke.getPoints().length * 4;
     }
 
     @NonNull
     @Override
     public String toString() {
-        return "Drawing path " + mPath.toString();
+        return "Drawing path of " + mStroke.getPointCount() + " points";
     }
 
 }
@@ -1,5 +1,9 @@
 package cse340.undo.app;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Bundle;
 import android.support.annotation.IdRes;
 import android.support.annotation.LayoutRes;
@@ -30,6 +34,9 @@ public abstract class AbstractDrawingActivity extends AppCompatActivity {
 
     private int mFabMargin;
 
+    /** Dumps the trace when Tracer.ACTION_DUMP is broadcast (null unless tracing is enabled). */
+    private BroadcastReceiver mDumpReceiver;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -44,6 +51,52 @@ public abstract class AbstractDrawingActivity extends AppCompatActivity {
         // Register onStrokeCompleted listener.
         mDrawingView = findViewById(R.id.draw);
         mDrawingView.addListener(this::doAction);
+
+        if (getResources().getBoolean(R.bool.low_latency_ink)) {
+            addInkSurface();
+        }
+
+        if (Tracer.ENABLED) {
+            mDumpReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    Tracer.dump();
+                }
+            };
+            registerReceiver(mDumpReceiver, new IntentFilter(Tracer.ACTION_DUMP));
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mDumpReceiver != null) {
+            unregisterReceiver(mDumpReceiver);
+            mDumpReceiver = null;
+        }
+    }
+
+    /**
+     * Draws the live stroke on its own render thread, in a view right above the DrawingView, so
+     * the color picker and the menus added later are still drawn over it.
+     */
+    private void addInkSurface() {
+        InkTextureView ink = new InkTextureView(this);
+        mLayout.addView(ink, mLayout.indexOfChild(mDrawingView) + 1,
+                new ConstraintLayout.LayoutParams(ConstraintLayout.LayoutParams.MATCH_PARENT,
+                        ConstraintLayout.LayoutParams.MATCH_PARENT));
+        mDrawingView.setInkSurface(ink);
+    }
+
+    /**
+     * Drops the stroke paths when memory runs low; they are rebuilt from the strokes' points.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            mDrawingView.trimMemory();
+        }
     }
 
     /**
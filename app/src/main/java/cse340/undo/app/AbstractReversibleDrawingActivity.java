@@ -3,15 +3,27 @@ package cse340.undo.app;
 import android.os.Bundle;
 import android.support.constraint.ConstraintSet;
 import android.util.Log;
+import android.view.View;
 import android.view.ViewGroup;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import cse340.undo.R;
 import cse340.undo.actions.AbstractAction;
 import cse340.undo.actions.AbstractReversibleAction;
+import cse340.undo.actions.CompositeAction;
+import cse340.undo.actions.StrokeAction;
 import cse340.undo.history.AbstractStackHistory;
+import cse340.undo.history.ActionJournal;
+import cse340.undo.history.BranchingStackHistory;
+import cse340.undo.history.KeyframeCache;
+import cse340.undo.history.RingBufferHistory;
+import cse340.undo.history.SpillingStackHistory;
 import cse340.undo.history.StackHistory;
 
 /**
@@ -26,18 +38,49 @@ import cse340.undo.history.StackHistory;
  * @see AbstractReversibleDrawingActivity#doAction(AbstractAction)
  * @see AbstractReversibleDrawingActivity#undo()
  * @see AbstractReversibleDrawingActivity#redo()
+ * @see AbstractReversibleDrawingActivity#beginTransaction()
+ *
+ * Every change to the history is recorded in an ActionJournal, which is replayed when the activity
+ * is created, so the drawing and its history survive Android killing the process.
+ *
+ * @see ActionJournal
  */
 public abstract class AbstractReversibleDrawingActivity extends AbstractDrawingActivity {
     protected static final int DEFAULT_HISTORY_SIZE = 10;
 
+    /** Number of committed strokes between keyframes of the drawing. */
+    protected static final int KEYFRAME_INTERVAL = 32;
+
+    /** Maximum number of bytes used by keyframes of the drawing. */
+    protected static final long KEYFRAME_MEMORY = 16 * 1024 * 1024;
+
+    /**
+     * Size of keyframes relative to the drawing, small enough for several to fit in
+     * KEYFRAME_MEMORY on large screens. Only full-size keyframes are used to rebuild the CACHED
+     * render mode's bitmap.
+     */
+    protected static final float KEYFRAME_SCALE = 0.5f;
+
+    /** Directory, under the app's files directory, holding the journal. */
+    protected static final String JOURNAL_DIR = "journal";
+
     private final String LOG_TAG = getClass().getSimpleName();
 
     /** History model used to do/undo/redo actions. */
     protected final AbstractStackHistory mModel;
 
+    /** Journal of the changes made to mModel. */
+    private ActionJournal mJournal;
+
+    /** Actions done since beginTransaction, or null if there is no open transaction. */
+    private List<AbstractReversibleAction> mTransaction;
+
     /** View groups containing undo and redo menu buttons. */
     private ViewGroup mUndoMenu, mRedoMenu;
 
+    /** Updates the menus' visibility, scheduled at most once per frame. */
+    private final Runnable mApplyMenuButtons = this::applyMenuButtons;
+
     /**
      * Class which defines a listener to be called when an action is done.
      */
@@ -52,12 +95,27 @@ public abstract class AbstractReversibleDrawingActivity extends AbstractDrawingA
         void onActionUndone(AbstractReversibleAction action);
     }
 
+    /**
+     * Class which defines a listener to be called once when several actions are undone or redone
+     * together, instead of once per action.
+     */
+    public interface HistoryJumpListener {
+        /**
+         * @param actions   Actions which were undone or redone, in the order it happened.
+         * @param undone    True if the actions were undone, false if they were redone.
+         */
+        void onHistoryJump(List<AbstractReversibleAction> actions, boolean undone);
+    }
+
     /** Data structure for storing listeners for action events **/
     private List<ActionListener> mActionListeners;
 
     /** Data structure for storing listeners for undo events **/
     private List<ActionUndoListener> mActionUndoListeners;
 
+    /** Data structure for storing listeners for multi-step undo/redo events **/
+    private List<HistoryJumpListener> mHistoryJumpListeners;
+
     /**
      * Creates a new AbstractReversibleDrawingActivity with the default history limit.
      */
@@ -71,7 +129,22 @@ public abstract class AbstractReversibleDrawingActivity extends AbstractDrawingA
      * @param history   Maximum number of history items to maintain.
      */
     public AbstractReversibleDrawingActivity(int history) {
-        mModel = new StackHistory(history);
+        this(new StackHistory(history));
+    }
+
+    /**
+     * Creates a new AbstractReversibleDrawingActivity backed by the given history model, for
+     * example a RingBufferHistory when the history limit is large.
+     *
+     * @param model History model used to do/undo/redo actions.
+     * @throws IllegalArgumentException if model is null.
+     * @see RingBufferHistory
+     */
+    public AbstractReversibleDrawingActivity(AbstractStackHistory model) {
+        if (model == null) {
+            throw new IllegalArgumentException("Null history model");
+        }
+        mModel = model;
     }
 
     @Override
@@ -89,14 +162,70 @@ public abstract class AbstractReversibleDrawingActivity extends AbstractDrawingA
 
         mActionUndoListeners = new ArrayList<>();
         mActionListeners = new ArrayList<>();
+        mHistoryJumpListeners = new ArrayList<>();
+
+        // Checkpoint the drawing so that jumping through history restores a keyframe instead of
+        // undoing or redoing every stroke's view.
+        mDrawingView.setKeyframeCache(new KeyframeCache(KEYFRAME_INTERVAL, KEYFRAME_MEMORY,
+                KEYFRAME_SCALE));
+
+        mJournal = new ActionJournal(new File(getFilesDir(), JOURNAL_DIR));
+
+        // Strokes whose actions are spilled to disk are mostly drawn from the cache, so the view
+        // doesn't need to keep their paths either.
+        if (mModel instanceof SpillingStackHistory) {
+            ((SpillingStackHistory) mModel).setSpillListener(this::releaseStrokes);
+        }
 
         updateMenuButtons();
     }
 
     /**
-     * Adds the action to the history, if it is reversible, or clears the history otherwise.
+     * Replays the journal once subclasses have finished onCreate, so their default paint is set
+     * and their listeners are registered before the drawing is restored.
+     */
+    @Override
+    protected void onPostCreate(Bundle savedInstanceState) {
+        super.onPostCreate(savedInstanceState);
+        replayJournal();
+    }
+
+    /**
+     * Leaving the foreground is the last safe point before the process may be killed.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mJournal.sync();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        FrameScheduler.getInstance().cancel(mApplyMenuButtons);
+
+        // A finished drawing is not restored; otherwise it is replayed by the next instance.
+        if (isFinishing()) {
+            mJournal.reset();
+        }
+        mJournal.close();
+
+        // Some history models hold files (e.g. SpillingStackHistory).
+        if (mModel instanceof Closeable) {
+            try {
+                ((Closeable) mModel).close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to close history", e);
+            }
+        }
+    }
+
+    /**
+     * Adds the action to the history, if it is reversible, or clears the history otherwise. During
+     * a transaction, reversible actions are collected instead, and added as one entry on commit.
      *
      * @param action    AbstractAction to be saved to history.
+     * @throws IllegalStateException if the action is not reversible and a transaction is open.
      */
     @Override
     protected void doAction(AbstractAction action) {
@@ -104,39 +233,159 @@ public abstract class AbstractReversibleDrawingActivity extends AbstractDrawingA
             return;
         }
 
+        if (mTransaction != null) {
+            if (!(action instanceof AbstractReversibleAction)) {
+                throw new IllegalStateException("Irreversible action in transaction: " + action);
+            }
+            super.doAction(action);
+            mTransaction.add((AbstractReversibleAction) action);
+            return;
+        }
+
         super.doAction(action);
 
         if (action instanceof AbstractReversibleAction) {
             // The action that was just done is undoable!
-            AbstractReversibleAction ra = (AbstractReversibleAction) action;
+            AbstractReversibleAction ra = toHistoryEntry((AbstractReversibleAction) action);
 
-            Log.i(LOG_TAG, "Before add: " + mModel);
-            mModel.addAction(ra);
-            Log.i(LOG_TAG, "After add: " + mModel);
+            boolean merged = mModel.addAction(ra);
+            mJournal.recordAction(ra, merged);
 
-            Log.i(LOG_TAG, "calling listeners on action");
             mActionListeners.forEach(l -> l.onAction(ra));
         } else {
             // The action that was just done is NOT undoable! Must clear history.
 
             Log.i(LOG_TAG, "Undoable action: " + action);
             mModel.clear();
+            mJournal.recordClear();
         }
 
         updateMenuButtons();
     }
 
+    /**
+     * Wraps a paint change in a composite, so a run of color, thickness and eraser changes merges
+     * into one history entry.
+     *
+     * @param action    Action which was just done.
+     * @return The action to add to the history.
+     * @see CompositeAction#tryMerge(AbstractReversibleAction)
+     */
+    private static AbstractReversibleAction toHistoryEntry(AbstractReversibleAction action) {
+        if (action instanceof CompositeAction || !CompositeAction.changesPaintOnly(action)) {
+            return action;
+        }
+        return new CompositeAction(Collections.singletonList(action));
+    }
+
+    /**
+     * Starts grouping actions into a single history entry. Until the transaction is committed or
+     * rolled back, actions passed to doAction are applied to the DrawingView but not added to the
+     * history, and the view's layout and redraw are deferred until the transaction ends.
+     *
+     * A transaction must end before control returns to the user, since undo and redo are not
+     * allowed while it is open.
+     *
+     * @throws IllegalStateException if a transaction is already open.
+     * @see AbstractReversibleDrawingActivity#commitTransaction()
+     * @see AbstractReversibleDrawingActivity#rollbackTransaction()
+     */
+    protected void beginTransaction() {
+        if (mTransaction != null) {
+            throw new IllegalStateException("Transaction already open");
+        }
+
+        mTransaction = new ArrayList<>();
+        mDrawingView.beginBatch();
+    }
+
+    /**
+     * Ends the open transaction, adding its actions to the history as one CompositeAction and
+     * flushing the DrawingView once. ActionListeners are notified once, with the composite.
+     *
+     * @throws IllegalStateException if no transaction is open.
+     */
+    protected void commitTransaction() {
+        List<AbstractReversibleAction> actions = endTransaction();
+        if (actions.isEmpty()) {
+            return;
+        }
+
+        CompositeAction composite = new CompositeAction(actions);
+
+        boolean merged = mModel.addAction(composite);
+        mJournal.recordAction(composite, merged);
+
+        mActionListeners.forEach(l -> l.onAction(composite));
+
+        updateMenuButtons();
+    }
+
+    /**
+     * Ends the open transaction by undoing its actions in reverse order. The DrawingView is flushed
+     * once, and no listeners are notified since the drawing is back where the transaction began.
+     *
+     * @throws IllegalStateException if no transaction is open.
+     */
+    protected void rollbackTransaction() {
+        List<AbstractReversibleAction> actions = mTransaction;
+        if (actions == null) {
+            throw new IllegalStateException("No open transaction");
+        }
+
+        try {
+            for (int i = actions.size() - 1; i >= 0; i--) {
+                actions.get(i).undoAction(mDrawingView);
+            }
+        } finally {
+            endTransaction();
+        }
+        Log.i(LOG_TAG, "Rolled back " + actions.size() + " actions");
+    }
+
+    /**
+     * @return True if a transaction is open, false otherwise.
+     */
+    protected boolean inTransaction() {
+        return mTransaction != null;
+    }
+
+    /**
+     * Closes the open transaction and flushes the DrawingView.
+     *
+     * @return Actions done during the transaction.
+     * @throws IllegalStateException if no transaction is open.
+     */
+    private List<AbstractReversibleAction> endTransaction() {
+        List<AbstractReversibleAction> actions = mTransaction;
+        if (actions == null) {
+            throw new IllegalStateException("No open transaction");
+        }
+
+        mTransaction = null;
+        mDrawingView.endBatch();
+        return actions;
+    }
+
+    /**
+     * @throws IllegalStateException if a transaction is open.
+     */
+    private void checkNoTransaction() {
+        if (mTransaction != null) {
+            throw new IllegalStateException("Can't undo or redo during a transaction");
+        }
+    }
+
     /**
      * Redoes the most recently undone action (if any).
      */
     protected void redo() {
-        Log.i(LOG_TAG, "Before redo: " + mModel);
+        checkNoTransaction();
         AbstractReversibleAction action = mModel.redo();
-        Log.i(LOG_TAG, "After redo: " + mModel);
 
         if (action != null) {
             action.doAction(mDrawingView);
-            Log.i(LOG_TAG, "calling action listeners on action");
+            mJournal.recordRedo(Collections.singletonList(action));
             mActionListeners.forEach(l -> l.onAction(action));
         }
 
@@ -147,22 +396,264 @@ public abstract class AbstractReversibleDrawingActivity extends AbstractDrawingA
      * Undoes the most recently (re)done action (if reversible).
      */
     protected void undo() {
-        Log.i(LOG_TAG, "Before undo" + mModel);
+        checkNoTransaction();
         AbstractReversibleAction action = mModel.undo();
-        Log.i(LOG_TAG, "After undo" + mModel);
 
         if (action != null) {
             action.undoAction(mDrawingView);
-            Log.i(LOG_TAG, "calling undo listeners on action");
+            mJournal.recordUndo(1);
             mActionUndoListeners.forEach(l -> l.onActionUndone(action));
         }
 
         updateMenuButtons();
     }
 
+    /**
+     * Undoes up to the given number of actions as one step. Strokes are removed in a single batch
+     * with one layout pass, and HistoryJumpListeners are notified once instead of notifying every
+     * ActionUndoListener for each action.
+     *
+     * @param steps Number of actions to undo.
+     */
+    protected void undo(int steps) {
+        checkNoTransaction();
+        List<AbstractReversibleAction> undone = undoInBatch(steps);
+
+        Log.i(LOG_TAG, "Undid " + undone.size() + " actions");
+        if (!undone.isEmpty()) {
+            mJournal.recordUndo(undone.size());
+            List<AbstractReversibleAction> actions = Collections.unmodifiableList(undone);
+            mHistoryJumpListeners.forEach(l -> l.onHistoryJump(actions, true));
+        }
+
+        updateMenuButtons();
+    }
+
+    /**
+     * Redoes up to the given number of actions as one step. Strokes are added in a single batch
+     * with one layout pass, and HistoryJumpListeners are notified once instead of notifying every
+     * ActionListener for each action.
+     *
+     * @param steps Number of actions to redo.
+     */
+    protected void redo(int steps) {
+        checkNoTransaction();
+        List<AbstractReversibleAction> redone = redoInBatch(steps);
+
+        Log.i(LOG_TAG, "Redid " + redone.size() + " actions");
+        if (!redone.isEmpty()) {
+            mJournal.recordRedo(redone);
+            List<AbstractReversibleAction> actions = Collections.unmodifiableList(redone);
+            mHistoryJumpListeners.forEach(l -> l.onHistoryJump(actions, false));
+        }
+
+        updateMenuButtons();
+    }
+
+    /**
+     * Undoes up to the given number of actions on the DrawingView within a single batch, without
+     * notifying any listeners.
+     *
+     * @param steps Number of actions to undo.
+     * @return Actions which were undone, in order.
+     */
+    private List<AbstractReversibleAction> undoInBatch(int steps) {
+        List<AbstractReversibleAction> undone = new ArrayList<>(Math.min(steps, mModel.getUndoCount()));
+
+        mDrawingView.beginBatch();
+        try {
+            for (int i = 0; i < steps; i++) {
+                AbstractReversibleAction action = mModel.undo();
+                if (action == null) {
+                    break;
+                }
+                action.undoAction(mDrawingView);
+                undone.add(action);
+            }
+        } finally {
+            mDrawingView.endBatch();
+        }
+        return undone;
+    }
+
+    /**
+     * Redoes up to the given number of actions on the DrawingView within a single batch, without
+     * notifying any listeners.
+     *
+     * @param steps Number of actions to redo.
+     * @return Actions which were redone, in order.
+     */
+    private List<AbstractReversibleAction> redoInBatch(int steps) {
+        List<AbstractReversibleAction> redone = new ArrayList<>(Math.min(steps, mModel.getRedoCount()));
+
+        mDrawingView.beginBatch();
+        try {
+            for (int i = 0; i < steps; i++) {
+                AbstractReversibleAction action = mModel.redo();
+                if (action == null) {
+                    break;
+                }
+                action.doAction(mDrawingView);
+                redone.add(action);
+            }
+        } finally {
+            mDrawingView.endBatch();
+        }
+        return redone;
+    }
+
+    /**
+     * Undoes or redoes actions until the given number of actions is done.
+     *
+     * @param index Position in the history, between 0 (everything undone) and
+     *              getHistoryIndex() + the number of actions that can be redone.
+     * @see AbstractReversibleDrawingActivity#undo(int)
+     * @see AbstractReversibleDrawingActivity#redo(int)
+     */
+    protected void jumpTo(int index) {
+        int current = getHistoryIndex();
+        if (index < current) {
+            undo(current - index);
+        } else if (index > current) {
+            redo(index - current);
+        }
+    }
+
+    /**
+     * @return Current position in the history, i.e. the number of actions which can be undone.
+     */
+    protected int getHistoryIndex() {
+        return mModel.getUndoCount();
+    }
+
+    /**
+     * Chooses which branch the next redo follows, if the history model keeps branches.
+     *
+     * @param branch    Index of the branch to redo.
+     * @return True if the branch was selected, false if the model has no such branch.
+     * @see BranchingStackHistory#selectBranch(int)
+     */
+    protected boolean selectBranch(int branch) {
+        if (!(mModel instanceof BranchingStackHistory)) {
+            return false;
+        }
+
+        boolean selected = ((BranchingStackHistory) mModel).selectBranch(branch);
+        if (selected) {
+            mJournal.recordSelectBranch(branch);
+        }
+        updateMenuButtons();
+        return selected;
+    }
+
+    /**
+     * Restores the drawing and history from the journal, in a single DrawingView batch, then
+     * notifies HistoryJumpListeners once with every action which ended up done.
+     */
+    private void replayJournal() {
+        List<AbstractReversibleAction> replayed = new ArrayList<>();
+
+        mDrawingView.beginBatch();
+        try {
+            mJournal.replay(new ActionJournal.Replayer() {
+                @Override
+                public boolean replayAction(AbstractReversibleAction action) {
+                    action.doAction(mDrawingView);
+                    replayed.add(action);
+                    return mModel.addAction(action);
+                }
+
+                @Override
+                public int replayUndo(int steps) {
+                    return undoInBatch(steps).size();
+                }
+
+                @Override
+                public List<AbstractReversibleAction> replayRedo(int steps) {
+                    return redoInBatch(steps);
+                }
+
+                @Override
+                public void replaySelectBranch(int branch) {
+                    if (mModel instanceof BranchingStackHistory) {
+                        ((BranchingStackHistory) mModel).selectBranch(branch);
+                    }
+                }
+
+                @Override
+                public void replayClear() {
+                    mModel.clear();
+                }
+            });
+        } catch (RuntimeException e) {
+            // Don't fail every launch on a journal that can't be applied; start a new one instead.
+            // The history is discarded, so undo whatever was drawn too, most recent first, rather
+            // than leave strokes which can never be undone.
+            Log.e(LOG_TAG, "Failed to replay journal, discarding history", e);
+            for (int i = replayed.size() - 1; i >= 0; i--) {
+                AbstractReversibleAction action = replayed.get(i);
+                if (action.isDone()) {
+                    action.undoAction(mDrawingView);
+                }
+            }
+            replayed.clear();
+            mModel.clear();
+            mJournal.reset();
+        } finally {
+            mDrawingView.endBatch();
+        }
+
+        Log.i(LOG_TAG, "Replayed " + replayed.size() + " actions: " + mModel);
+        replayed.removeIf(action -> !action.isDone());
+        if (!replayed.isEmpty()) {
+            List<AbstractReversibleAction> actions = Collections.unmodifiableList(replayed);
+            mHistoryJumpListeners.forEach(l -> l.onHistoryJump(actions, false));
+        }
+
+        updateMenuButtons();
+    }
+
+    /**
+     * Releases the paths of the strokes drawn by an action, including those of a composite action.
+     *
+     * @param action    Action which left the in-memory history.
+     */
+    private void releaseStrokes(AbstractReversibleAction action) {
+        if (action instanceof StrokeAction) {
+            mDrawingView.releaseStroke(((StrokeAction) action).getId());
+        } else if (action instanceof CompositeAction) {
+            ((CompositeAction) action).getActions().forEach(this::releaseStrokes);
+        }
+    }
+
+    /**
+     * Shows the undo and redo menus only when there is something to undo or redo, on the next
+     * frame, so a burst of history changes only updates them once. Called after every change to
+     * the history, so it also traces the history's size.
+     */
     protected void updateMenuButtons() {
-        setViewVisibility(mUndoMenu, mModel.canUndo());
-        setViewVisibility(mRedoMenu, mModel.canRedo());
+        if (Tracer.ENABLED) {
+            Tracer.history(mModel.getUndoCount(), mModel.getRedoCount());
+        }
+        FrameScheduler.getInstance().schedule(mApplyMenuButtons);
+    }
+
+    /**
+     * Sets the visibility of the undo and redo menus from the history, skipping menus which are
+     * already right.
+     */
+    private void applyMenuButtons() {
+        applyVisibility(mUndoMenu, mModel.canUndo());
+        applyVisibility(mRedoMenu, mModel.canRedo());
+    }
+
+    /**
+     * Sets a view's visibility, unless it already has it.
+     */
+    private static void applyVisibility(View view, boolean visible) {
+        if (view != null && (view.getVisibility() == View.VISIBLE) != visible) {
+            setViewVisibility(view, visible);
+        }
     }
 
     /**
@@ -185,6 +676,26 @@ public abstract class AbstractReversibleDrawingActivity extends AbstractDrawingA
         return mActionUndoListeners.remove(listener);
     }
 
+    /**
+     * Registers a new multi-step undo/redo listener for the history
+     *
+     * The listener is called *after* all of the actions are undone or redone
+     */
+    public void registerHistoryJumpListener(HistoryJumpListener listener) {
+        Log.i(LOG_TAG, "history jump listener registered");
+        mHistoryJumpListeners.add(listener);
+    }
+
+    /**
+     * Deregisters a multi-step undo/redo listener for the history
+     *
+     * @return True if the listener did exist, and was thus deregistered. False otherwise
+     */
+    public boolean deregisterHistoryJumpListener(HistoryJumpListener listener) {
+        Log.i(LOG_TAG, "history jump listener deregistered");
+        return mHistoryJumpListeners.remove(listener);
+    }
+
     /**
      * Registers a new listener for the history
      *
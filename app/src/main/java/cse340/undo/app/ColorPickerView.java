@@ -40,15 +40,47 @@ public class ColorPickerView extends AbstractColorPickerView {
         invalidate();
     }
 
+    /** Last touch position on the wheel, applied to the model on the next frame. */
+    private float mPendingX, mPendingY;
+    private boolean mModelPending;
+
+    /** Applies the pending touch position, scheduled at most once per frame. */
+    private final Runnable mApplyModel = this::applyModel;
+
+    /**
+     * Records a touch on the wheel. The color is only computed and redrawn on the next frame, so
+     * several moves between two frames are applied once.
+     */
     private void updateModel(float x, float y) {
         // hint: we give you a very helpful function to call
         if (mState == State.START) {
             mPrevColor = mCurrentColor;
         }
-        setColor(getColorFromAngle(getTouchAngle(x, y)));
+        mPendingX = x;
+        mPendingY = y;
+        mModelPending = true;
+        FrameScheduler.getInstance().schedule(mApplyModel);
+    }
+
+    /**
+     * Sets the color from the pending touch position, if any. Redraws only if the color changed.
+     */
+    private void applyModel() {
+        if (!mModelPending) {
+            return;
+        }
+        mModelPending = false;
+        FrameScheduler.getInstance().cancel(mApplyModel);
+
+        int color = getColorFromAngle(getTouchAngle(mPendingX, mPendingY));
+        if (color != mCurrentColor) {
+            setColor(color);
+        }
     }
 
     private void resetColor() {
+        mModelPending = false;
+        FrameScheduler.getInstance().cancel(mApplyModel);
         setColor(mPrevColor);
         thumbBrush.setAlpha((int)(1f*255));
     }
@@ -89,6 +121,15 @@ public class ColorPickerView extends AbstractColorPickerView {
 
     }
 
+    /**
+     * A detached view is not drawn, so its pending color is applied without waiting for a frame.
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        applyModel();
+    }
+
     /**
      * Draw the ColorPicker on the Canvas
      * @param canvas the canvas that is drawn upon
@@ -164,6 +205,8 @@ public class ColorPickerView extends AbstractColorPickerView {
                 if (event.getAction() == MotionEvent.ACTION_UP) {
                     mState = State.START;
                     if (geometry == EssentialGeometry.WHEEL) {
+                        // Listeners must get the color of the last move, even mid-frame.
+                        applyModel();
                         invokeColorChangeListeners(mCurrentColor);
                         invalidate();
                         return true;
@@ -175,7 +218,6 @@ public class ColorPickerView extends AbstractColorPickerView {
                 } else if (event.getAction() == MotionEvent.ACTION_MOVE) {
                     if (geometry == EssentialGeometry.WHEEL) {
                         updateModel(event.getX(), event.getY());
-                        invalidate();
                         return true;
                     } else {  //outside the wheel
                         //handle it but don't do anything
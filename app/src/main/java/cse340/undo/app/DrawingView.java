@@ -2,30 +2,65 @@ package cse340.undo.app;
 
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Path;
 import android.graphics.PointF;
+import android.graphics.Rect;
 import android.util.AttributeSet;
+import android.util.TypedValue;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.widget.FrameLayout;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import cse340.undo.actions.AbstractAction;
 import cse340.undo.actions.AbstractReversibleViewAction;
 import cse340.undo.actions.StrokeAction;
+import cse340.undo.history.KeyframeCache;
 
 /***
  * The canvas on which the drawing takes place. Drawings are made up of
  * strokes, which are handled by the StrokeAction class.
  * This canvas doesn't know anything about undo, and you won't need
  * to modify it to add features, or to add support for undo.
+ *
+ * Strokes are registered as geometry, and kept in a display list in the order they were added. By
+ * default committed strokes are composited once into an offscreen bitmap, so each frame only draws
+ * that bitmap and the stroke being drawn. They may instead be drawn from the display list every
+ * frame, split into tiles which are each cached and redrawn on their own, recorded into Picture
+ * display lists in chunks, or rendered as one view per stroke.
+ *
+ * @see RenderMode
  */
 public class DrawingView extends FrameLayout {
     public static final String LOG_TAG = "DrawingView";
 
+    /** How committed strokes are rendered. */
+    public enum RenderMode {
+        /** Each stroke is a full-size StrokeView child, measured, laid out and drawn on its own. */
+        VIEWS,
+        /** Strokes are drawn from the display list in onDraw, without any child views. */
+        RETAINED,
+        /** Committed strokes are drawn once into an offscreen bitmap, which onDraw blits. */
+        CACHED,
+        /**
+         * Committed strokes are drawn into tiles, so a change only redraws the tiles it touches.
+         * Tiles are rendered when first drawn, and evicted when over a memory budget.
+         */
+        TILED,
+        /**
+         * Committed strokes are recorded into Pictures in chunks, so each frame replays a few
+         * display lists instead of a drawPath per stroke, at full vector quality.
+         */
+        PICTURE
+    }
+
     /** State machine enum and field. */
     private enum DrawingModel {
         START, DRAWING
@@ -35,12 +70,17 @@ public class DrawingView extends FrameLayout {
     private DrawingModel mState;
 
     /** Drawing fields. */
-    private Path mCurrentPath;
-    private Paint mCurrentPaint;
+    private PaintStyle mCurrentStyle;
 
     /** Stroke drawing buffer. Used to render the line while it's being drawn. */
     protected AbstractReversibleViewAction mBuffer;
 
+    /**
+     * Geometry of the stroke in mBuffer (or null if not drawing). It is not part of the display
+     * list; dispatchDraw draws it as an overlay above every committed stroke and child view.
+     */
+    private Stroke mLiveStroke;
+
     /** Stroke event listeners. */
     public interface OnStrokeCompletedListener {
         void onStrokeCompleted(AbstractAction action);
@@ -49,12 +89,105 @@ public class DrawingView extends FrameLayout {
     /** Collection of current stroke listeners. */
     private final Set<OnStrokeCompletedListener> mListeners;
 
+    /** Display list: the strokes currently part of the drawing, in the order they were added. */
+    private final List<Stroke> mStrokes;
+
+    /** Spatial index over the bounds of the committed strokes in mStrokes. */
+    private final StrokeIndex mIndex;
+
+    /** How the strokes are rendered. */
+    private RenderMode mRenderMode;
+
+    /** Number of unfinished beginBatch calls. While positive, layout requests are deferred. */
+    private int mBatchDepth;
+
+    /** Number of strokes added or removed during the current batch. */
+    private int mBatchChanges;
+
+    /**
+     * View the live stroke is drawn into by a render thread, instead of the overlay (or null to
+     * draw it in dispatchDraw).
+     */
+    private InkTextureView mInkSurface;
+
+    /** Whether the ink surface should be cleared once the committed stroke has been drawn. */
+    private boolean mInkClearPending;
+
+    /** Clears the ink surface, scheduled on the frame after the committed stroke is drawn. */
+    private final Runnable mClearInk = this::clearInk;
+
+    /** Redraws the live stroke, scheduled at most once per frame. */
+    private final Runnable mFrameInvalidate = this::invalidateFrame;
+
+    /** Checkpoints of the drawing (or null if disabled). */
+    private KeyframeCache mKeyframes;
+
+    /**
+     * Keyframe drawn below the other strokes (or null if none). The first mBaseCount strokes are
+     * drawn in it and are not rendered individually; every later stroke is.
+     */
+    private Bitmap mBaseLayer;
+    private int mBaseCount;
+
+    /** Whether a stroke drawn in mBaseLayer was removed, so an older keyframe must be restored. */
+    private boolean mBaseStale;
+
+    /** Where mBaseLayer is drawn, and the paint used to scale it. */
+    private final Rect mBaseBounds;
+    private final Paint mBasePaint;
+
+    /**
+     * Offscreen bitmap of the committed strokes, in CACHED mode (or null until the next draw). It
+     * holds the first mCacheCount strokes of the display list.
+     */
+    private Bitmap mCache;
+    private Canvas mCacheCanvas;
+    private int mCacheCount;
+
+    /**
+     * Whether mCache also holds strokes which were removed, so it must be redrawn from the nearest
+     * keyframe. The first mCacheCount strokes are still unchanged.
+     */
+    private boolean mCacheStale;
+
+    /** Maximum memory used by tile bitmaps in TILED mode, in bytes. */
+    private static final long TILE_MEMORY = 24 * 1024 * 1024;
+
+    /** Committed strokes by tile, in TILED mode (or null until the next draw). */
+    private TileGrid mTiles;
+
+    /** Maximum number of detached stroke views kept for reuse. */
+    private static final int VIEW_POOL_SIZE = 32;
+
+    /**
+     * Stroke views detached in VIEWS mode, kept for reuse, least recently detached first. A stroke
+     * which is redone gets its own view back if it is still pooled.
+     */
+    private final List<StrokeView> mViewPool;
+
+    /** Committed strokes by recorded chunk, in PICTURE mode (or null until the next draw). */
+    private PictureChunks mChunks;
+
+    /** Finds the strokes hidden by later opaque strokes (or null until the next draw). */
+    private OcclusionCuller mCuller;
+
+    /** Whether the display list changed since mCuller was last updated. */
+    private boolean mOcclusionStale;
+
+    /** Whether strokes hidden by later opaque strokes are skipped when drawn every frame. */
+    private boolean mOcclusionCulling;
+
     /** Min distance the user should move before you add to the path. */
     public static int MIN_MOVE_DIST = 5;
 
+    /** Default simplification tolerance of committed strokes, in dp. */
+    public static final float DEFAULT_SIMPLIFY_TOLERANCE = 0.5f;
+
+    /** How far simplification may move a committed stroke's points, in pixels (0 to disable). */
+    private float mSimplifyTolerance;
+
     /** Used to track last touch point for path drawing. */
     private final PointF mLastPoint;
-    private final PointF mStartPoint;
 
     /**
      * Creates a new, empty DrawingView with default paint properties.
@@ -63,17 +196,24 @@ public class DrawingView extends FrameLayout {
         super(context, attributeSet);
 
         mListeners = new HashSet<>();
+        mStrokes = new ArrayList<>();
+        mIndex = new StrokeIndex();
+        mViewPool = new ArrayList<>(VIEW_POOL_SIZE);
+        mRenderMode = RenderMode.CACHED;
+        mOcclusionCulling = true;
+
+        // Strokes are drawn by onDraw, which a FrameLayout skips by default.
+        setWillNotDraw(false);
+
+        mBaseBounds = new Rect();
+        mBasePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
 
         mLastPoint = new PointF();
-        mStartPoint = new PointF();
 
-        mCurrentPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        mCurrentPaint.setDither(true);
-        mCurrentPaint.setStyle(Paint.Style.STROKE);
-        mCurrentPaint.setStrokeJoin(Paint.Join.ROUND);
-        mCurrentPaint.setStrokeCap(Paint.Cap.ROUND);
+        setSimplifyTolerance(DEFAULT_SIMPLIFY_TOLERANCE);
 
-        mCurrentPath = new Path();
+        mCurrentStyle = PaintStyle.intern(Color.BLACK, 0, Paint.Style.STROKE, Paint.Cap.ROUND,
+                Paint.Join.ROUND, true, true);
 
         mState = DrawingModel.START;
     }
@@ -90,18 +230,26 @@ public class DrawingView extends FrameLayout {
     public boolean onTouchEvent(MotionEvent event) {
         float x = event.getX();
         float y = event.getY();
-        Log.i(LOG_TAG, "Touch at (" + x + ", " + y + ")");
 
         // Handle input events.
-        switch (mState) {
-            case START:
-                return handleStartState(event, x, y);
-            case DRAWING:
-                return handleDrawingState(event, x, y);
-            default:
-                break;
+        if (Tracer.ENABLED) {
+            Tracer.begin("DrawingView.onTouchEvent");
+        }
+        try {
+            switch (mState) {
+                case START:
+                    return handleStartState(event, x, y);
+                case DRAWING:
+                    return handleDrawingState(event, x, y);
+                default:
+                    break;
+            }
+            return false;
+        } finally {
+            if (Tracer.ENABLED) {
+                Tracer.end();
+            }
         }
-        return false;
     }
 
     /**
@@ -112,7 +260,13 @@ public class DrawingView extends FrameLayout {
      * @return true if the event was consumed, false otherwise
      */
     private boolean handleStartState(MotionEvent event, float x, float y) {
-        Log.i(LOG_TAG, "onDrawStart");
+        if (Tracer.ENABLED) {
+            Tracer.touch(Tracer.Event.TOUCH_DOWN, x, y, 1);
+        }
+        if (mInkSurface != null) {
+            // Get every move as it arrives rather than batched once per frame.
+            requestUnbufferedDispatch(event);
+        }
         onDrawStart(x, y);
         mState = DrawingModel.DRAWING;
         return true;
@@ -128,16 +282,22 @@ public class DrawingView extends FrameLayout {
     private boolean handleDrawingState(MotionEvent event, float x, float y) {
         switch (event.getAction()) {
             case MotionEvent.ACTION_MOVE:
-                Log.i(LOG_TAG, "onDrawMove");
-                onDrawMove(x, y);
+                if (Tracer.ENABLED) {
+                    Tracer.touch(Tracer.Event.TOUCH_MOVE, x, y, event.getHistorySize() + 1);
+                }
+                onDrawMove(event);
                 return true;
             case MotionEvent.ACTION_UP:
-                Log.i(LOG_TAG, "onDrawEnd");
+                if (Tracer.ENABLED) {
+                    Tracer.touch(Tracer.Event.TOUCH_UP, x, y, 1);
+                }
                 onDrawEnd(x, y);
                 mState = DrawingModel.START;
                 return true;
             case MotionEvent.ACTION_CANCEL:
-                Log.i(LOG_TAG, "onDrawCancel");
+                if (Tracer.ENABLED) {
+                    Tracer.touch(Tracer.Event.TOUCH_CANCEL, x, y, 1);
+                }
                 onDrawCancel();
                 mState = DrawingModel.START;
                 return true;
@@ -154,16 +314,42 @@ public class DrawingView extends FrameLayout {
      * @param y Vertical coordinate of touch.
      */
     protected void onDrawStart(float x, float y) {
-        // Start a new drawing path.
-        mCurrentPath.moveTo(x, y);
-        mStartPoint.x = x;
-        mStartPoint.y = y;
         mLastPoint.x = x;
         mLastPoint.y = y;
-        Log.i(LOG_TAG, "onDrawStart: starting new stroke @ " + mLastPoint);
 
-        mBuffer = new StrokeAction(mCurrentPath, mCurrentPaint);
-        mBuffer.doAction(this);
+        // Start a new stroke in the overlay; points are added to it as the touch moves. The
+        // buffer is not done until the stroke is committed, so no view is added while drawing.
+        StrokeAction buffer = new StrokeAction(new float[] {x, y}, mCurrentStyle);
+        mLiveStroke = buffer.getStroke();
+        mBuffer = buffer;
+        if (mInkSurface != null) {
+            // The previous stroke's ink may not be erased yet; erase it before the new one starts.
+            boolean clearPending = FrameScheduler.getInstance().cancel(mClearInk) | mInkClearPending;
+            mInkClearPending = false;
+            if (clearPending) {
+                mInkSurface.clear();
+            }
+            mInkSurface.beginStroke(x, y, mCurrentStyle);
+        }
+        invalidateLive();
+    }
+
+    /**
+     * Triggered when drawing moves. Every sample batched into the event since the last one is
+     * added to the path, oldest first, then the overlay is redrawn once.
+     *
+     * @param event Move event, with its historical samples.
+     */
+    protected void onDrawMove(MotionEvent event) {
+        boolean added = false;
+        for (int i = 0, n = event.getHistorySize(); i < n; i++) {
+            added |= addSample(event.getHistoricalX(i), event.getHistoricalY(i));
+        }
+        added |= addSample(event.getX(), event.getY());
+
+        if (added) {
+            invalidateLive();
+        }
     }
 
     /**
@@ -173,52 +359,717 @@ public class DrawingView extends FrameLayout {
      * @param y Vertical coordinate of touch.
      */
     protected void onDrawMove(float x, float y) {
+        if (addSample(x, y)) {
+            invalidateLive();
+        }
+    }
+
+    /**
+     * Redraws the live stroke overlay, along with whatever is below it, on the next frame. Touch
+     * events arriving between two frames only invalidate the view once. The whole view is redrawn,
+     * since hardware-accelerated views ignore dirty rectangles; redrawing is cheap because the
+     * committed strokes come from the cache, tiles or chunks.
+     */
+    private void invalidateLive() {
+        if (mInkSurface != null) {
+            // The live stroke is drawn by the ink surface.
+            return;
+        }
+        FrameScheduler.getInstance().schedule(mFrameInvalidate);
+    }
+
+    /**
+     * Invalidates the view for the live stroke changes since the last frame, unless the view is
+     * not shown.
+     */
+    private void invalidateFrame() {
+        if (isShown()) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Erases the ink surface, once the committed stroke it showed is drawn below it.
+     */
+    private void clearInk() {
+        if (mInkSurface != null && mLiveStroke == null) {
+            mInkSurface.clear();
+        }
+    }
+
+    /**
+     * A detached view is not drawn, so its pending frame update is dropped.
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        FrameScheduler.getInstance().cancel(mFrameInvalidate);
+        FrameScheduler.getInstance().cancel(mClearInk);
+    }
+
+    /**
+     * Adds a touch sample to the stroke being drawn if it is far enough from the last point.
+     *
+     * @param x Horizontal coordinate of the sample.
+     * @param y Vertical coordinate of the sample.
+     * @return True if the sample was added, false if it was too close.
+     */
+    private boolean addSample(float x, float y) {
         // Only add a bezier when the distance is larger than a threshold (MIN_MOVE_DIST).
-        // If the distance is smaller, wait until a ACTION_MOVE event that creates a large enough distance.
-        if (Math.sqrt(Math.pow(x - mLastPoint.x, 2) + Math.pow(y - mLastPoint.y, 2)) >= MIN_MOVE_DIST) {
-            // For each ACTION_MOVE event, add a quadratic bezier from the last point (in the drawing path) to current point.
-            // Each bezier is a smooth arc to be added in the drawing path.
-            mCurrentPath.quadTo(mLastPoint.x, mLastPoint.y,
-                    (x + mLastPoint.x) / 2, (y + mLastPoint.y) / 2);
-            mLastPoint.x = x;
-            mLastPoint.y = y;
+        // If the distance is smaller, wait until a sample that creates a large enough distance.
+        float dx = x - mLastPoint.x;
+        float dy = y - mLastPoint.y;
+        if (dx * dx + dy * dy < MIN_MOVE_DIST * MIN_MOVE_DIST) {
+            return false;
+        }
 
-            // The stroke buffer has access to currentPath, invalidate to trigger redraw.
-            mBuffer.invalidate();
+        // Add a point to the stroke, which adds a quadratic bezier from the last point to the
+        // midpoint between it and the current point.
+        mLiveStroke.addPoint(x, y);
+        if (mInkSurface != null) {
+            mInkSurface.addPoint(x, y);
         }
+        mLastPoint.x = x;
+        mLastPoint.y = y;
+        return true;
     }
 
     /**
      * Triggered when drawing ends. Commits the current buffer as a done action by triggering
-     * callbacks.
+     * callbacks, which hand the stroke over from the overlay to the committed strokes. The stroke
+     * is simplified first, so listeners get the stroke as it is stored. Strokes which never moved
+     * from their first point are discarded.
      */
     protected void onDrawEnd(float x, float y) {
-        if (Math.sqrt(Math.pow(mStartPoint.x - mLastPoint.x, 2) + Math.pow(mStartPoint.y - mLastPoint.y, 2)) >= MIN_MOVE_DIST) {
+        // Clear the overlay first; the committed stroke is drawn as soon as listeners do it.
+        AbstractReversibleViewAction buffer = mBuffer;
+        Stroke stroke = mLiveStroke;
+        mBuffer = null;
+        mLiveStroke = null;
+        stroke.trimToSize();
 
-            mBuffer.undoAction(this);
+        // Points are only added once the touch moves MIN_MOVE_DIST from the last one, so a stroke
+        // with a single point is a tap. Strokes which end where they started, such as loops, are kept.
+        if (stroke.getPointCount() <= 1) {
+            invalidateLive();
+            if (mInkSurface != null) {
+                mInkSurface.clear();
+            }
+        } else {
+            if (mInkSurface != null) {
+                // Keep the ink until the committed stroke is on screen; see onDraw.
+                mInkSurface.endStroke();
+                mInkClearPending = true;
+            }
+
+            // The stroke was never registered, so its bounds may still shrink.
+            if (mSimplifyTolerance > 0) {
+                stroke.simplify(mSimplifyTolerance);
+            }
 
             Log.i(LOG_TAG, "Stroke completed, triggering " + mListeners.size() + " listener" + (mListeners.size() == 1 ? "" : "s"));
             for (OnStrokeCompletedListener l : mListeners) {
-                l.onStrokeCompleted(mBuffer);
+                l.onStrokeCompleted(buffer);
+            }
+            if (mInkClearPending) {
+                // Make sure onDraw runs even if no listener committed the stroke.
+                invalidate();
             }
         }
-
-        // Very important; buffer has a reference to currentPath. If we don't reinitialize, every
-        // buffer will share the same path.
-        mCurrentPath = new Path();
-        mBuffer = null;
     }
 
     /**
      * Triggered when drawing is cancelled. Trashes the current buffer and ignores callbacks.
      */
     protected void onDrawCancel() {
-        if (mBuffer != null) {
-            mBuffer.undoAction(this);
+        if (mLiveStroke != null) {
+            invalidateLive();
+        }
+        if (mInkSurface != null) {
+            mInkSurface.clear();
         }
         mBuffer = null;
+        mLiveStroke = null;
+    }
+
+    /**
+     * Renders a stroke on top of every other stroke.
+     *
+     * @param stroke    Stroke to render.
+     */
+    public void addStroke(Stroke stroke) {
+        beginBatch();
+        mStrokes.add(stroke);
+        if (mRenderMode == RenderMode.VIEWS) {
+            attachStrokeView(stroke, -1);
+        } else if (mTiles != null) {
+            mTiles.add(stroke);
+        } else if (mChunks != null) {
+            mChunks.add(stroke);
+        }
+        mIndex.add(stroke);
+        mOcclusionStale = true;
+        if (mKeyframes != null) {
+            mKeyframes.onStrokeAdded(mStrokes.size(), stroke.getId());
+        }
+        mBatchChanges++;
+        endBatch();
+    }
+
+    /**
+     * Stops rendering a stroke. Strokes are usually removed in the reverse order they were added,
+     * so the search starts from the most recent one.
+     *
+     * @param strokeId  Identifier of the stroke to remove.
+     * @return True if the stroke was removed, false if it was not being rendered.
+     */
+    public boolean removeStroke(int strokeId) {
+        for (int i = mStrokes.size() - 1; i >= 0; i--) {
+            if (mStrokes.get(i).getId() == strokeId) {
+                beginBatch();
+                Stroke stroke = mStrokes.remove(i);
+                if (mTiles != null) {
+                    mTiles.remove(stroke);
+                }
+                if (mChunks != null) {
+                    mChunks.remove(stroke);
+                }
+                mIndex.remove(stroke);
+                mOcclusionStale = true;
+                if (i >= mBaseCount) {
+                    if (mRenderMode == RenderMode.VIEWS) {
+                        detachStrokeViews(i - mBaseCount, 1);
+                    }
+                } else {
+                    // The stroke is drawn in the base layer, which must go back to an older keyframe.
+                    mBaseCount--;
+                    mBaseStale = true;
+                }
+                if (i < mCacheCount) {
+                    mCacheCount = i;
+                    mCacheStale = true;
+                }
+                if (mKeyframes != null && i < mStrokes.size()) {
+                    // Keyframes of the top stroke are kept, in case it is redone.
+                    mKeyframes.invalidateAfter(i);
+                }
+                mBatchChanges++;
+                endBatch();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Attaches a view rendering a stroke, without requesting a layout pass. The stroke's own view
+     * is reused if it is still pooled, then the least recently detached view; a view is only
+     * created when the pool is empty.
+     *
+     * @param stroke    Stroke to render.
+     * @param index Position of the view among the children, or -1 to add it last.
+     */
+    private void attachStrokeView(Stroke stroke, int index) {
+        StrokeView view = null;
+        for (int i = mViewPool.size() - 1; i >= 0; i--) {
+            if (mViewPool.get(i).getStroke() == stroke) {
+                view = mViewPool.remove(i);
+                break;
+            }
+        }
+        if (view == null && !mViewPool.isEmpty()) {
+            view = mViewPool.remove(0);
+            view.setStroke(stroke);
+        }
+        if (view == null) {
+            view = new StrokeView(getContext(), stroke);
+            view.setLayoutParams(generateDefaultLayoutParams());
+        }
+        addViewInLayout(view, index, view.getLayoutParams());
+    }
+
+    /**
+     * Detaches stroke views without requesting a layout pass, and pools them for reuse.
+     *
+     * @param start Position of the first view among the children.
+     * @param count Number of views to detach.
+     */
+    private void detachStrokeViews(int start, int count) {
+        for (int i = start; i < start + count; i++) {
+            if (mViewPool.size() == VIEW_POOL_SIZE) {
+                mViewPool.remove(0);
+            }
+            mViewPool.add((StrokeView) getChildAt(i));
+        }
+        removeViewsInLayout(start, count);
+    }
+
+    /**
+     * Redraws a whole stroke.
+     *
+     * @param stroke    Stroke which changed.
+     */
+    public void invalidateStroke(Stroke stroke) {
+        if (mRenderMode == RenderMode.VIEWS) {
+            int index = mStrokes.lastIndexOf(stroke);
+            if (index >= mBaseCount) {
+                getChildAt(index - mBaseCount).invalidate();
+            }
+        } else {
+            invalidate();
+        }
+    }
+
+    /**
+     * Stops keeping the path of a committed stroke whose action left the in-memory history, such
+     * as when SpillingStackHistory spills it to disk. The stroke is then drawn from its points
+     * alone. Old strokes are usually drawn from the cache or base layer, so their paths are rarely
+     * rebuilt. Strokes are usually released oldest first, so the search starts from the first one.
+     *
+     * @param strokeId  Identifier of the stroke to release.
+     * @return True if the stroke was released, false if it is not being rendered.
+     */
+    public boolean releaseStroke(int strokeId) {
+        for (Stroke stroke : mStrokes) {
+            if (stroke.getId() == strokeId) {
+                stroke.setPathRetained(false);
+                return true;
+            }
+        }
+        return false;
+    }
 
-        mCurrentPath.reset();
+    /**
+     * Releases memory which can be rebuilt: the paths of committed strokes, which are rebuilt from
+     * their points when next drawn. Called under memory pressure.
+     */
+    public void trimMemory() {
+        for (Stroke stroke : mStrokes) {
+            stroke.trimPath();
+        }
+        Log.i(LOG_TAG, "Trimmed paths of " + mStrokes.size() + " strokes");
+    }
+
+    /**
+     * Gets the spatial index over the committed strokes, for finding the strokes under a point,
+     * within an area, or along a path without scanning the whole drawing. It is kept up to date as
+     * strokes are added and removed, and does not include the stroke being drawn.
+     *
+     * @return Index of the committed strokes. Must not be modified.
+     */
+    public StrokeIndex getStrokeIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Chooses how strokes are rendered.
+     *
+     * @param mode  Render mode to switch to.
+     */
+    public void setRenderMode(RenderMode mode) {
+        if (mode == mRenderMode) {
+            return;
+        }
+
+        beginBatch();
+        if (mRenderMode == RenderMode.VIEWS) {
+            removeAllViewsInLayout();
+            mViewPool.clear();
+        }
+        mRenderMode = mode;
+        dropCache();
+        if (mode == RenderMode.VIEWS) {
+            for (int i = mBaseCount; i < mStrokes.size(); i++) {
+                attachStrokeView(mStrokes.get(i), -1);
+            }
+        }
+        mBatchChanges++;
+        endBatch();
+    }
+
+    /**
+     * @return How strokes are rendered.
+     */
+    public RenderMode getRenderMode() {
+        return mRenderMode;
+    }
+
+    /**
+     * Starts a batch of stroke changes. Until the matching endBatch, strokes are added and removed
+     * without requesting a layout pass each time. Batches may be nested.
+     */
+    public void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Ends a batch of stroke changes. When the outermost batch ends, keyframes are updated and a
+     * single redraw (and layout pass, when strokes are views) is requested if any stroke was added
+     * or removed.
+     *
+     * @throws IllegalStateException if there is no batch to end.
+     */
+    public void endBatch() {
+        if (mBatchDepth <= 0) {
+            throw new IllegalStateException("endBatch without beginBatch");
+        }
+
+        mBatchDepth--;
+        if (mBatchDepth > 0 || mBatchChanges == 0) {
+            return;
+        }
+
+        if (mKeyframes != null) {
+            updateKeyframes(mBatchChanges > 1);
+        }
+        mBatchChanges = 0;
+        if (mRenderMode == RenderMode.VIEWS) {
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    /**
+     * Enables checkpointing of the drawing. Every few committed strokes a keyframe is taken, and
+     * when many strokes are undone or redone at once, the nearest keyframe is drawn in place of
+     * all the strokes before it, so at most the keyframe interval of strokes are drawn one by one.
+     *
+     * @param keyframes Cache to store keyframes in, or null to disable checkpointing.
+     */
+    public void setKeyframeCache(KeyframeCache keyframes) {
+        beginBatch();
+        rebase(0);
+        mBaseStale = false;
+        mKeyframes = keyframes;
+        mBatchChanges++;
+        endBatch();
+    }
+
+    /**
+     * Restores a valid keyframe if the base layer is stale, takes a keyframe if one is due, and
+     * after a seek replaces the attached strokes with the nearest keyframe.
+     *
+     * @param seek  Whether several strokes were added or removed at once.
+     */
+    private void updateKeyframes(boolean seek) {
+        if (mBaseStale) {
+            rebase(mKeyframes.floorKey(mBaseCount));
+            mBaseStale = false;
+        }
+
+        int interval = mKeyframes.getInterval();
+        int latest = mStrokes.size() / interval * interval;
+        if (latest > 0 && drawsKeyframes()) {
+            captureKeyframe(latest);
+        }
+
+        if (seek && mStrokes.size() - mBaseCount > interval) {
+            int key = mKeyframes.floorKey(mStrokes.size());
+            if (key > mBaseCount) {
+                rebase(key);
+            }
+        }
+    }
+
+    /**
+     * @return True if keyframes are drawn in the current render mode: as the base layer, or to
+     * rebuild the cache if they are full size. The tiles and chunks of the other modes hold every
+     * stroke already.
+     */
+    private boolean drawsKeyframes() {
+        switch (mRenderMode) {
+            case VIEWS:
+            case RETAINED:
+                return true;
+            case CACHED:
+                return mKeyframes.getScale() == 1;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Draws the first strokes of the drawing into a new keyframe, starting from the nearest older
+     * keyframe so only the strokes since then are drawn. Does nothing if the keyframe is cached,
+     * too large for the cache, or was dropped from it for lack of memory.
+     *
+     * @param strokes   Number of strokes to draw in the keyframe.
+     */
+    private void captureKeyframe(int strokes) {
+        int width = getWidth();
+        int height = getHeight();
+        if (width == 0 || height == 0) {
+            return;
+        }
+
+        float scale = mKeyframes.getScale();
+        int frameWidth = Math.max(1, Math.round(width * scale));
+        int frameHeight = Math.max(1, Math.round(height * scale));
+        int lastId = mStrokes.get(strokes - 1).getId();
+        if (!mKeyframes.wants(strokes, lastId, 4L * frameWidth * frameHeight)) {
+            return;
+        }
+
+        Bitmap frame = Bitmap.createBitmap(frameWidth, frameHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(frame);
+
+        int from = mKeyframes.floorKey(strokes - 1);
+        if (from > 0) {
+            canvas.drawBitmap(mKeyframes.get(from), 0, 0, null);
+        }
+        canvas.scale(scale, scale);
+        for (int i = from; i < strokes; i++) {
+            Stroke stroke = mStrokes.get(i);
+            canvas.drawPath(stroke.getPath(), stroke.getPaint());
+        }
+
+        mKeyframes.put(strokes, lastId, frame);
+    }
+
+    /**
+     * Draws the given number of strokes from a keyframe and renders every later stroke on its own,
+     * attaching or detaching stroke views as needed. Only called within a batch, so the layout pass
+     * is requested once by endBatch.
+     *
+     * @param strokes   Number of strokes in the keyframe to restore, or 0 for no keyframe.
+     */
+    private void rebase(int strokes) {
+        if (mRenderMode == RenderMode.VIEWS) {
+            if (strokes < mBaseCount) {
+                for (int i = mBaseCount - 1; i >= strokes; i--) {
+                    attachStrokeView(mStrokes.get(i), 0);
+                }
+            } else if (strokes > mBaseCount) {
+                detachStrokeViews(0, strokes - mBaseCount);
+            }
+        }
+
+        mBaseCount = strokes;
+        mBaseLayer = strokes > 0 ? mKeyframes.get(strokes) : null;
+    }
+
+    /**
+     * Draws the committed strokes from the cache, or from the base layer keyframe (if any), then
+     * the rest of the display list unless strokes are rendered as child views, which are drawn
+     * above this. In TILED and PICTURE modes, the tiles or chunks hold every committed stroke.
+     */
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (mInkClearPending) {
+            // This frame shows the committed stroke, so the ink can go from the next one.
+            mInkClearPending = false;
+            FrameScheduler.getInstance().schedule(mClearInk);
+        }
+
+        if ((mRenderMode == RenderMode.TILED && updateTiles())
+                || (mRenderMode == RenderMode.PICTURE && updateChunks())) {
+            if (mTiles != null) {
+                mTiles.draw(canvas);
+            } else {
+                mChunks.draw(canvas);
+            }
+            return;
+        }
+
+        int from = mBaseCount;
+        if (mRenderMode == RenderMode.CACHED && updateCache()) {
+            canvas.drawBitmap(mCache, 0, 0, null);
+            from = mCacheCount;
+        } else if (mBaseLayer != null) {
+            canvas.drawBitmap(mBaseLayer, null, mBaseBounds, mBasePaint);
+        }
+
+        if (mRenderMode != RenderMode.VIEWS) {
+            // In CACHED mode, at most the strokes added since the last draw are left, and the
+            // culler is only worth updating when the cache is redrawn.
+            OcclusionCuller culler = mRenderMode == RenderMode.RETAINED ? updateOcclusion() : null;
+            for (int i = from; i < mStrokes.size(); i++) {
+                if (culler != null && culler.isOccluded(i)) {
+                    continue;
+                }
+                Stroke stroke = mStrokes.get(i);
+                canvas.drawPath(stroke.getPath(), stroke.getPaint());
+            }
+        }
+    }
+
+    /**
+     * Brings the occlusion pass up to date with the display list, so hidden strokes can be skipped
+     * by loops which draw up to the top stroke (hiding strokes are always drawn after them). Since
+     * it is recomputed whenever a stroke is added or removed, removing a hiding stroke shows the
+     * strokes it hid on the same draw. The pass is linear in the number of strokes, so it is only
+     * run before drawing every stroke: each frame in RETAINED mode, and when the cache is redrawn
+     * in CACHED mode.
+     *
+     * @return The culler, or null if occlusion culling is off or the view has no size yet.
+     */
+    private OcclusionCuller updateOcclusion() {
+        if (!mOcclusionCulling) {
+            return null;
+        }
+        if (mCuller == null) {
+            int width = getWidth();
+            int height = getHeight();
+            if (width == 0 || height == 0) {
+                return null;
+            }
+            mCuller = new OcclusionCuller(width, height);
+            mOcclusionStale = true;
+        }
+
+        if (mOcclusionStale) {
+            if (Tracer.ENABLED) {
+                Tracer.begin("DrawingView.updateOcclusion");
+            }
+            mCuller.update(mStrokes);
+            mOcclusionStale = false;
+            if (Tracer.ENABLED) {
+                Tracer.end();
+            }
+        }
+        return mCuller;
+    }
+
+    /**
+     * Draws the live stroke overlay above the child views, which are drawn above onDraw.
+     */
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        super.dispatchDraw(canvas);
+
+        if (mLiveStroke != null && mInkSurface == null) {
+            canvas.drawPath(mLiveStroke.getPath(), mLiveStroke.getPaint());
+        }
+    }
+
+    /**
+     * Brings the cache up to date with the committed strokes. New strokes are drawn on top of the
+     * cache. If a cached stroke was removed, the cache
+     * is redrawn from the nearest full-size keyframe, so undoing the top stroke only redraws the
+     * strokes since that keyframe.
+     *
+     * @return True if the cache can be drawn, false if the view has no size yet.
+     */
+    private boolean updateCache() {
+        int width = getWidth();
+        int height = getHeight();
+        if (width == 0 || height == 0) {
+            return false;
+        }
+
+        boolean redraw = mCacheStale;
+        if (mCache == null) {
+            mCache = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mCacheCanvas = new Canvas(mCache);
+            mCacheCount = 0;
+            mCacheStale = false;
+            redraw = true;
+        }
+
+        if (mCacheStale) {
+            mCache.eraseColor(Color.TRANSPARENT);
+            int key = 0;
+            if (mKeyframes != null && mKeyframes.getScale() == 1) {
+                key = mKeyframes.floorKey(mCacheCount);
+                if (key > 0) {
+                    mCacheCanvas.drawBitmap(mKeyframes.get(key), 0, 0, null);
+                }
+            }
+            mCacheCount = key;
+            mCacheStale = false;
+        }
+
+        // Strokes appended on top of the cache are drawn as they are; only a redraw is culled.
+        OcclusionCuller culler = redraw ? updateOcclusion() : null;
+        for (; mCacheCount < mStrokes.size(); mCacheCount++) {
+            if (culler != null && culler.isOccluded(mCacheCount)) {
+                continue;
+            }
+            Stroke stroke = mStrokes.get(mCacheCount);
+            mCacheCanvas.drawPath(stroke.getPath(), stroke.getPaint());
+        }
+        return true;
+    }
+
+    /**
+     * Creates the tile grid if needed, from every committed stroke. From then on it is kept up to
+     * date as strokes are added and removed.
+     *
+     * @return True if the tiles can be drawn, false if the view has no size yet.
+     */
+    private boolean updateTiles() {
+        if (mTiles != null) {
+            return true;
+        }
+
+        int width = getWidth();
+        int height = getHeight();
+        if (width == 0 || height == 0) {
+            return false;
+        }
+
+        mTiles = new TileGrid(width, height, TILE_MEMORY);
+        for (Stroke stroke : mStrokes) {
+            mTiles.add(stroke);
+        }
+        Log.i(LOG_TAG, "Created " + mTiles);
+        return true;
+    }
+
+    /**
+     * Creates the picture chunks if needed, from every committed stroke. From then on they are kept
+     * up to date as strokes are added and removed.
+     *
+     * @return True if the chunks can be drawn, false if the view has no size yet.
+     */
+    private boolean updateChunks() {
+        if (mChunks != null) {
+            return true;
+        }
+
+        int width = getWidth();
+        int height = getHeight();
+        if (width == 0 || height == 0) {
+            return false;
+        }
+
+        mChunks = new PictureChunks(width, height);
+        for (Stroke stroke : mStrokes) {
+            mChunks.add(stroke);
+        }
+        Log.i(LOG_TAG, "Created " + mChunks);
+        return true;
+    }
+
+    /**
+     * Frees the cache, tiles, chunks and culler; they are recreated on the next draw if needed.
+     */
+    private void dropCache() {
+        mCuller = null;
+        mCache = null;
+        mCacheCanvas = null;
+        mCacheCount = 0;
+        mCacheStale = false;
+        mTiles = null;
+        mChunks = null;
+    }
+
+    /**
+     * Keyframes are the size of the old canvas, so drop them and render every stroke again.
+     */
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mBaseBounds.set(0, 0, w, h);
+        dropCache();
+
+        if (mKeyframes != null) {
+            mKeyframes.clear();
+            // Views can't be attached in the middle of this layout pass.
+            post(() -> setKeyframeCache(mKeyframes));
+        }
     }
 
     //region Getters & Setters
@@ -242,12 +1093,89 @@ public class DrawingView extends FrameLayout {
         return mListeners.remove(listener);
     }
 
+    /**
+     * Sets how far simplification may move the points of a committed stroke. Slow strokes get a
+     * point for every few pixels, most of which can be removed without any visible change.
+     *
+     * @param dp    Tolerance in density-independent pixels, or 0 to keep every point.
+     * @throws IllegalArgumentException if dp is negative.
+     */
+    public void setSimplifyTolerance(float dp) {
+        if (!(dp >= 0)) {
+            throw new IllegalArgumentException("Illegal tolerance: " + dp);
+        }
+        mSimplifyTolerance = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp,
+                getResources().getDisplayMetrics());
+    }
+
+    /**
+     * Sets the view the live stroke is drawn into by its own render thread, for lower latency than
+     * invalidating this view. Touch samples are handed to it as they are added to the live stroke;
+     * completed strokes are still committed through the listeners, so history and undo are
+     * unchanged. The view must cover this view exactly, and come right after it in view order.
+     *
+     * @param surface   View to draw the live stroke into, or null to draw it in this view.
+     * @throws IllegalStateException if a stroke is being drawn.
+     */
+    public void setInkSurface(InkTextureView surface) {
+        if (mState == DrawingModel.DRAWING) {
+            throw new IllegalStateException("Cannot change the ink surface while drawing");
+        }
+        if (mInkSurface != null) {
+            FrameScheduler.getInstance().cancel(mClearInk);
+            mInkClearPending = false;
+            mInkSurface.clear();
+        }
+        mInkSurface = surface;
+    }
+
+    /**
+     * Turns skipping strokes hidden by later opaque strokes (such as eraser strokes) on or off.
+     * Hidden strokes are skipped in RETAINED mode, and when the cache is redrawn in CACHED mode.
+     *
+     * @param enabled   True to skip hidden strokes.
+     */
+    public void setOcclusionCulling(boolean enabled) {
+        if (enabled != mOcclusionCulling) {
+            mOcclusionCulling = enabled;
+            mCuller = null;
+            invalidate();
+        }
+    }
+
+    /**
+     * @return Paint of the current style, shared with every stroke drawn with it. Must not be
+     * modified; use setCurrentStyle instead.
+     */
     public Paint getCurrentPaint() {
-        return mCurrentPaint;
+        return mCurrentStyle.getPaint();
     }
 
+    /**
+     * Sets the current style to the properties of a paint. The paint itself is not kept.
+     *
+     * @param paint Paint to draw new strokes like.
+     */
     public void setCurrentPaint(Paint paint) {
-        mCurrentPaint = paint;
+        mCurrentStyle = PaintStyle.of(paint);
+    }
+
+    /**
+     * @return Style new strokes are drawn with.
+     */
+    public PaintStyle getCurrentStyle() {
+        return mCurrentStyle;
+    }
+
+    /**
+     * @param style Style to draw new strokes with.
+     * @throws IllegalArgumentException if style is null.
+     */
+    public void setCurrentStyle(PaintStyle style) {
+        if (style == null) {
+            throw new IllegalArgumentException("Null style");
+        }
+        mCurrentStyle = style;
     }
     //endregion
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+package cse340.undo.app;
+
+import android.support.annotation.NonNull;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs UI updates once per frame, aligned with vsync. Views and activities accumulate their pending
+ * changes (dirty areas, colors, menu visibility) and schedule a task to apply them; scheduling the
+ * same task again before the next frame does nothing, so a burst of touch events or history changes
+ * between two frames is applied once. Tasks run as Choreographer frame callbacks, before the frame's
+ * layout and draw, so whatever they invalidate is drawn in the same frame.
+ *
+ * Tasks should drop updates which would not change anything on screen.
+ *
+ * Only used from the UI thread.
+ */
+public final class FrameScheduler implements Choreographer.FrameCallback {
+    /** Scheduler of the UI thread (or null until first used). */
+    private static FrameScheduler sInstance;
+
+    private final Choreographer mChoreographer;
+
+    /** Tasks to run on the next frame, in the order they were first scheduled. */
+    private List<Runnable> mPending;
+
+    /** Tasks being run, swapped with mPending so tasks can schedule themselves again. */
+    private List<Runnable> mRunning;
+
+    /** Whether a frame callback is posted. */
+    private boolean mPosted;
+
+    private FrameScheduler() {
+        mChoreographer = Choreographer.getInstance();
+        mPending = new ArrayList<>();
+        mRunning = new ArrayList<>();
+    }
+
+    /**
+     * @return The scheduler of the UI thread.
+     */
+    public static FrameScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new FrameScheduler();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Runs a task on the next frame, unless it is already scheduled.
+     *
+     * @param task  Task to run. Should be a field, not a new lambda, so it is recognized again.
+     * @throws IllegalArgumentException if task is null.
+     */
+    public void schedule(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("Null task");
+        }
+        if (mPending.contains(task)) {
+            return;
+        }
+        mPending.add(task);
+        if (!mPosted) {
+            mPosted = true;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Stops a task from running on the next frame, such as when its view is detached or its
+     * changes were applied directly.
+     *
+     * @param task  Task to cancel.
+     * @return True if the task was scheduled, false otherwise.
+     */
+    public boolean cancel(Runnable task) {
+        boolean removed = mPending.remove(task);
+        if (mPending.isEmpty() && mPosted) {
+            mPosted = false;
+            mChoreographer.removeFrameCallback(this);
+        }
+        return removed;
+    }
+
+    /**
+     * Runs the tasks scheduled since the last frame.
+     *
+     * @param frameTimeNanos    Time the frame started rendering, in nanoseconds.
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mPosted = false;
+        List<Runnable> running = mPending;
+        mPending = mRunning;
+        mRunning = running;
+
+        if (Tracer.ENABLED) {
+            Tracer.begin("FrameScheduler.doFrame");
+        }
+        try {
+            for (int i = 0; i < running.size(); i++) {
+                running.get(i).run();
+            }
+        } finally {
+            running.clear();
+            if (Tracer.ENABLED) {
+                Tracer.end();
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Frame scheduler: " + mPending.size() + " pending tasks";
+    }
+}
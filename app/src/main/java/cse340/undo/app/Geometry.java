@@ -0,0 +1,21 @@
+package cse340.undo.app;
+
+/**
+ * Geometry helpers shared by the stroke index, the occlusion culler and stroke simplification.
+ */
+final class Geometry {
+    private Geometry() {
+    }
+
+    /**
+     * @return Squared distance from a point to a line segment.
+     */
+    static float squaredDistance(float x, float y, float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1, dy = y2 - y1;
+        float length = dx * dx + dy * dy;
+        float t = length > 0 ? ((x - x1) * dx + (y - y1) * dy) / length : 0;
+        t = Math.max(0, Math.min(1, t));
+        float ex = x1 + t * dx - x, ey = y1 + t * dy - y;
+        return ex * ex + ey * ey;
+    }
+}
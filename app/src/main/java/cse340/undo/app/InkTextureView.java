@@ -0,0 +1,311 @@
+package cse340.undo.app;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.SurfaceTexture;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.AttributeSet;
+import android.view.TextureView;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Low-latency backend for the live stroke of a DrawingView. Instead of invalidating the view and
+ * waiting for the UI thread's next traversal, DrawingView hands each accepted touch sample to a
+ * lock-free queue, and a dedicated render thread draws the new segments straight into this view's
+ * surface. The ink is kept until the committed stroke has been drawn by DrawingView, then erased.
+ *
+ * Only the live stroke is drawn here: committed strokes, listeners and history are still handled
+ * by DrawingView on the UI thread. The view must cover the DrawingView exactly, and should not be
+ * clickable so touches reach the DrawingView below.
+ *
+ * As a TextureView, it is composited in view order, so views added after it (such as menus and
+ * the color picker) are drawn over the ink. It needs a hardware accelerated window.
+ *
+ * @see DrawingView#setInkSurface(InkTextureView)
+ */
+public class InkTextureView extends TextureView implements TextureView.SurfaceTextureListener {
+    private static final String LOG_TAG = "InkTextureView";
+
+    /** Maximum number of samples waiting for the render thread. */
+    private static final int QUEUE_CAPACITY = 4096;
+
+    /** Samples from the UI thread to the render thread. */
+    private final TouchSampleQueue mQueue;
+
+    /** Thread drawing into the surface (or null while there is no surface). */
+    private volatile Thread mRenderThread;
+
+    /** Whether the render thread should keep running. */
+    private volatile boolean mRunning;
+
+    /** Set when the surface is resized, so the render thread erases all of it. */
+    private volatile boolean mResized;
+
+    /** Number of samples dropped because the queue was full. Only used by the UI thread. */
+    private int mDropped;
+
+    /**
+     * Style of the stroke being drawn, held so the render thread can still look it up by its
+     * identifier, since styles are interned weakly. Only used by the UI thread.
+     */
+    private PaintStyle mStyle;
+
+    /**
+     * Creates a transparent view.
+     */
+    public InkTextureView(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * Creates a transparent view.
+     */
+    public InkTextureView(Context context, AttributeSet attributeSet) {
+        super(context, attributeSet);
+
+        mQueue = new TouchSampleQueue(QUEUE_CAPACITY);
+        setOpaque(false);
+        setSurfaceTextureListener(this);
+    }
+
+    //region Producer (UI thread)
+    /**
+     * Starts drawing a stroke.
+     *
+     * @param x Horizontal coordinate of the first point.
+     * @param y Vertical coordinate of the first point.
+     * @param style Style of the stroke.
+     */
+    public void beginStroke(float x, float y, PaintStyle style) {
+        mStyle = style;
+        offer(TouchSampleQueue.BEGIN, x, y, style.getId());
+    }
+
+    /**
+     * Adds a point to the stroke being drawn, as added to the DrawingView's live stroke.
+     *
+     * @param x Horizontal coordinate of the point.
+     * @param y Vertical coordinate of the point.
+     */
+    public void addPoint(float x, float y) {
+        offer(TouchSampleQueue.POINT, x, y, 0);
+    }
+
+    /**
+     * Ends the stroke being drawn. Its ink stays until clear is called, once the committed stroke
+     * is drawn below.
+     */
+    public void endStroke() {
+        offer(TouchSampleQueue.END, 0, 0, 0);
+    }
+
+    /**
+     * Erases the ink.
+     */
+    public void clear() {
+        offer(TouchSampleQueue.CLEAR, 0, 0, 0);
+    }
+
+    /**
+     * Queues a sample and wakes the render thread. Samples are dropped while there is no surface.
+     * If the queue is full, points are dropped, but the other samples wait for the render thread
+     * so strokes are always started, ended and erased.
+     */
+    private void offer(int kind, float x, float y, int styleId) {
+        Thread thread = mRenderThread;
+        if (thread == null) {
+            return;
+        }
+
+        while (!mQueue.offer(kind, x, y, styleId)) {
+            if (kind == TouchSampleQueue.POINT || !mRunning) {
+                mDropped++;
+                break;
+            }
+            LockSupport.unpark(thread);
+            Thread.yield();
+        }
+        LockSupport.unpark(thread);
+    }
+    //endregion
+
+    //region Surface lifecycle (UI thread)
+    /**
+     * Starts the render thread.
+     */
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+        mRunning = true;
+        Thread thread = new Thread(this::render, LOG_TAG);
+        mRenderThread = thread;
+        thread.start();
+    }
+
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+        mResized = true;
+        Thread thread = mRenderThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Stops the render thread, waiting for it since the surface must not be used after this
+     * returns.
+     *
+     * @return True, so the view releases the surface.
+     */
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+        Thread thread = mRenderThread;
+        mRenderThread = null;
+        mRunning = false;
+        if (thread == null) {
+            return true;
+        }
+
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+    }
+    //endregion
+
+    //region Consumer (render thread)
+    /**
+     * Body of the render thread. Drains the queue, extending the path the same way Stroke builds
+     * it, then redraws only the area of the new segments. Samples queued while a frame is posted
+     * are drawn together in the next one. Sleeps while the queue is empty.
+     */
+    private void render() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+
+        TouchSampleQueue.Sample sample = new TouchSampleQueue.Sample();
+        Paint paint = new Paint();
+        Path path = null;
+        float lastX = 0, lastY = 0, endX = 0, endY = 0, pad = 0;
+
+        // Area drawn since the last clear, and area to draw in the next frame.
+        RectF ink = new RectF();
+        RectF dirty = new RectF();
+        Rect dirtyRect = new Rect();
+
+        // The surface's first buffer is undefined, and so is a resized one, so erase all of it.
+        boolean erase = true;
+
+        while (mRunning) {
+            if (mResized) {
+                mResized = false;
+                erase = true;
+            }
+            while (mQueue.poll(sample)) {
+                switch (sample.mKind) {
+                    case TouchSampleQueue.BEGIN:
+                        setPaint(paint, PaintStyle.get(sample.mStyleId));
+                        pad = Stroke.getPadding(paint);
+                        path = new Path();
+                        path.moveTo(sample.mX, sample.mY);
+                        lastX = endX = sample.mX;
+                        lastY = endY = sample.mY;
+                        dirty.union(lastX - pad, lastY - pad, lastX + pad, lastY + pad);
+                        break;
+                    case TouchSampleQueue.POINT:
+                        if (path == null) {
+                            break;
+                        }
+                        float midX = (sample.mX + lastX) / 2;
+                        float midY = (sample.mY + lastY) / 2;
+                        path.quadTo(lastX, lastY, midX, midY);
+                        // A quadratic bezier stays within the triangle of its start, control and end points.
+                        dirty.union(Math.min(endX, Math.min(lastX, midX)) - pad,
+                                Math.min(endY, Math.min(lastY, midY)) - pad,
+                                Math.max(endX, Math.max(lastX, midX)) + pad,
+                                Math.max(endY, Math.max(lastY, midY)) + pad);
+                        endX = midX;
+                        endY = midY;
+                        lastX = sample.mX;
+                        lastY = sample.mY;
+                        break;
+                    case TouchSampleQueue.END:
+                        // The path is kept, so its last segments are still drawn, until CLEAR.
+                        break;
+                    case TouchSampleQueue.CLEAR:
+                        path = null;
+                        dirty.union(ink);
+                        ink.setEmpty();
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            if (erase || !dirty.isEmpty()) {
+                Canvas canvas;
+                if (erase) {
+                    canvas = lockCanvas();
+                } else {
+                    dirty.roundOut(dirtyRect);
+                    // The area outside dirtyRect keeps the contents of the previous frame.
+                    canvas = lockCanvas(dirtyRect);
+                }
+                if (canvas != null) {
+                    canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+                    if (path != null) {
+                        canvas.drawPath(path, paint);
+                    }
+                    unlockCanvasAndPost(canvas);
+                    if (path != null) {
+                        ink.union(dirty);
+                    }
+                    erase = false;
+                }
+                dirty.setEmpty();
+            } else if (mQueue.isEmpty()) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * Sets a paint owned by the render thread to a style's properties, instead of sharing the
+     * style's paint with the UI thread.
+     */
+    private static void setPaint(Paint paint, PaintStyle style) {
+        paint.setColor(style.getColor());
+        paint.setStrokeWidth(style.getWidth());
+        paint.setStyle(style.getStyle());
+        paint.setStrokeCap(style.getCap());
+        paint.setStrokeJoin(style.getJoin());
+        paint.setAntiAlias(style.isAntiAlias());
+        paint.setDither(style.isDither());
+    }
+    //endregion
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Ink texture: " + mDropped + " dropped samples, " + mQueue;
+    }
+}
@@ -0,0 +1,203 @@
+package cse340.undo.app;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Finds the committed strokes which are completely hidden by later opaque strokes (such as eraser
+ * strokes), so they can be skipped when drawing. The canvas is divided into small square cells;
+ * going from the top stroke down, a stroke is hidden if every cell its bounds touch is entirely
+ * covered by the strokes above it, and then the cells it entirely covers are added to the
+ * coverage. The test is conservative: a stroke is only hidden if no pixel of it can show.
+ *
+ * The result is recomputed from the display list whenever it changes, so undoing an occluding
+ * stroke shows the strokes it hid again on the next draw.
+ */
+class OcclusionCuller {
+    /** Width and height of a cell, in pixels. */
+    static final int CELL_SIZE = 4;
+
+    /** Number of line segments each quadratic curve is flattened into. */
+    private static final int FLATTEN_SEGMENTS = 4;
+
+    /** Cells which can never be covered. */
+    private static final int[] NO_CELLS = new int[0];
+
+    /** Number of cell columns and rows. */
+    private final int mColumns, mRows;
+
+    /** Cells covered by the strokes above the one being tested. */
+    private final BitSet mCoverage;
+
+    /** Display list indices of the hidden strokes. */
+    private final BitSet mOccluded;
+
+    /** Cells each stroke entirely covers, computed once per stroke. */
+    private final Map<Stroke, int[]> mCovered;
+
+    /**
+     * Creates a culler for a canvas.
+     *
+     * @param width Width of the canvas, in pixels.
+     * @param height    Height of the canvas, in pixels.
+     * @throws IllegalArgumentException if the size is not positive.
+     */
+    OcclusionCuller(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Illegal size: " + width + "x" + height);
+        }
+        mColumns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        mRows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        mCoverage = new BitSet(mColumns * mRows);
+        mOccluded = new BitSet();
+        mCovered = new WeakHashMap<>();
+    }
+
+    /**
+     * Recomputes which strokes are hidden.
+     *
+     * @param strokes   Display list, bottom stroke first.
+     * @return Number of hidden strokes.
+     */
+    int update(List<Stroke> strokes) {
+        mCoverage.clear();
+        mOccluded.clear();
+        for (int i = strokes.size() - 1; i >= 0; i--) {
+            Stroke stroke = strokes.get(i);
+            if (isCovered(stroke.getBounds())) {
+                mOccluded.set(i);
+                continue;
+            }
+
+            int[] cells = mCovered.get(stroke);
+            if (cells == null) {
+                cells = computeCovered(stroke);
+                mCovered.put(stroke, cells);
+            }
+            for (int cell : cells) {
+                mCoverage.set(cell);
+            }
+        }
+        return mOccluded.cardinality();
+    }
+
+    /**
+     * @param index Display list index of a stroke, as of the last update.
+     * @return True if the stroke is hidden by the strokes above it.
+     */
+    boolean isOccluded(int index) {
+        return mOccluded.get(index);
+    }
+
+    /**
+     * Checks whether every cell an area touches is covered. Cells outside the canvas are never
+     * visible, so they count as covered.
+     */
+    private boolean isCovered(RectF area) {
+        int left = Math.max(0, (int) Math.floor(area.left / CELL_SIZE));
+        int top = Math.max(0, (int) Math.floor(area.top / CELL_SIZE));
+        int right = Math.min(mColumns - 1, (int) Math.floor(area.right / CELL_SIZE));
+        int bottom = Math.min(mRows - 1, (int) Math.floor(area.bottom / CELL_SIZE));
+        for (int row = top; row <= bottom; row++) {
+            int from = row * mColumns + left;
+            int to = row * mColumns + right + 1;
+            if (from < to && mCoverage.nextClearBit(from) < to) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the cells a stroke paints entirely with an opaque color. Each curve of the path is
+     * flattened into line segments, and a cell is covered if its four corners are within the
+     * stroke's reach of a segment, less the flattening error and a pixel for anti-aliasing. Only
+     * opaque strokes with round caps and joins are used, since their outline is exactly the union
+     * of those reaches.
+     */
+    private int[] computeCovered(Stroke stroke) {
+        Paint paint = stroke.getPaint();
+        if (Color.alpha(paint.getColor()) != 255 || paint.getStyle() != Paint.Style.STROKE
+                || paint.getStrokeCap() != Paint.Cap.ROUND || paint.getStrokeJoin() != Paint.Join.ROUND
+                || stroke.getPointCount() < 2) {
+            return NO_CELLS;
+        }
+
+        float reach = paint.getStrokeWidth() / 2 - 1;
+        float[] points = stroke.getPoints();
+        BitSet covered = new BitSet();
+
+        // The path starts at the first point, then curves to each midpoint through each point.
+        float startX = points[0], startY = points[1];
+        for (int i = 2; i < stroke.getPointCount() * 2; i += 2) {
+            float controlX = points[i - 2], controlY = points[i - 1];
+            float endX = (points[i] + controlX) / 2, endY = (points[i + 1] + controlY) / 2;
+
+            // Distance between the curve and its flattened segments.
+            float ddx = startX - 2 * controlX + endX, ddy = startY - 2 * controlY + endY;
+            float error = (float) Math.sqrt(ddx * ddx + ddy * ddy) / (4 * FLATTEN_SEGMENTS * FLATTEN_SEGMENTS);
+            float radius = reach - error;
+
+            // Cells need a radius of at least half their diagonal to be covered.
+            if (radius > CELL_SIZE * 0.71f) {
+                float fromX = startX, fromY = startY;
+                for (int s = 1; s <= FLATTEN_SEGMENTS; s++) {
+                    float t = (float) s / FLATTEN_SEGMENTS;
+                    float u = 1 - t;
+                    float toX = u * u * startX + 2 * u * t * controlX + t * t * endX;
+                    float toY = u * u * startY + 2 * u * t * controlY + t * t * endY;
+                    coverSegment(fromX, fromY, toX, toY, radius, covered);
+                    fromX = toX;
+                    fromY = toY;
+                }
+            }
+
+            startX = endX;
+            startY = endY;
+        }
+
+        int[] cells = new int[covered.cardinality()];
+        for (int i = 0, cell = covered.nextSetBit(0); cell >= 0; cell = covered.nextSetBit(cell + 1)) {
+            cells[i++] = cell;
+        }
+        return cells;
+    }
+
+    /**
+     * Adds the cells entirely within a distance of a line segment.
+     */
+    private void coverSegment(float x1, float y1, float x2, float y2, float radius, BitSet covered) {
+        int left = Math.max(0, (int) Math.floor((Math.min(x1, x2) - radius) / CELL_SIZE));
+        int top = Math.max(0, (int) Math.floor((Math.min(y1, y2) - radius) / CELL_SIZE));
+        int right = Math.min(mColumns - 1, (int) Math.floor((Math.max(x1, x2) + radius) / CELL_SIZE));
+        int bottom = Math.min(mRows - 1, (int) Math.floor((Math.max(y1, y2) + radius) / CELL_SIZE));
+
+        float squaredRadius = radius * radius;
+        for (int row = top; row <= bottom; row++) {
+            for (int col = left; col <= right; col++) {
+                float x = col * CELL_SIZE, y = row * CELL_SIZE;
+                float cellRight = x + CELL_SIZE, cellBottom = y + CELL_SIZE;
+                if (Geometry.squaredDistance(x, y, x1, y1, x2, y2) <= squaredRadius
+                        && Geometry.squaredDistance(cellRight, y, x1, y1, x2, y2) <= squaredRadius
+                        && Geometry.squaredDistance(x, cellBottom, x1, y1, x2, y2) <= squaredRadius
+                        && Geometry.squaredDistance(cellRight, cellBottom, x1, y1, x2, y2)
+                                <= squaredRadius) {
+                    covered.set(row * mColumns + col);
+                }
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Occlusion: " + mOccluded.cardinality() + " hidden strokes";
+    }
+}
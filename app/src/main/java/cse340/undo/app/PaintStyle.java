@@ -0,0 +1,250 @@
+package cse340.undo.app;
+
+import android.graphics.Paint;
+import android.support.annotation.ColorInt;
+import android.support.annotation.NonNull;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Immutable set of the paint properties a stroke is drawn with. Styles are interned, so strokes
+ * drawn with identical properties share one instance, one small identifier, and one Paint, instead
+ * of each stroke keeping its own copy of the paint.
+ *
+ * Styles are never modified; withColor and withWidth return the interned style with that property
+ * changed.
+ *
+ * Styles are interned weakly: once no stroke, action or view holds a style it is released, along
+ * with its identifier. Identifiers are never reused, so an identifier names the same style for as
+ * long as that style is alive.
+ */
+public final class PaintStyle {
+    /** Interned styles, by value. Keys and values are both weak, so no style is kept alive. */
+    private static final Map<PaintStyle, WeakReference<PaintStyle>> sTable = new WeakHashMap<>();
+
+    /** Interned styles, by identifier. Entries of released styles are removed via sReleased. */
+    private static final Map<Integer, StyleReference> sById = new HashMap<>();
+    private static final ReferenceQueue<PaintStyle> sReleased = new ReferenceQueue<>();
+
+    /** Identifier of the next interned style. */
+    private static int sNextId;
+
+    @ColorInt
+    private final int mColor;
+    private final float mWidth;
+    private final Paint.Style mStyle;
+    private final Paint.Cap mCap;
+    private final Paint.Join mJoin;
+    private final boolean mAntiAlias;
+    private final boolean mDither;
+
+    /** Key of this style in sById (or -1 while looking it up). */
+    private int mId = -1;
+
+    /** Paint with this style's properties (or null until first drawn). Never modified. */
+    private Paint mPaint;
+
+    private PaintStyle(@ColorInt int color, float width, Paint.Style style, Paint.Cap cap,
+                       Paint.Join join, boolean antiAlias, boolean dither) {
+        mColor = color;
+        mWidth = width;
+        mStyle = style;
+        mCap = cap;
+        mJoin = join;
+        mAntiAlias = antiAlias;
+        mDither = dither;
+    }
+
+    /**
+     * Gets the interned style with the given properties, creating it if needed.
+     *
+     * @param color Color of the paint.
+     * @param width Stroke width of the paint.
+     * @param style Style of the paint.
+     * @param cap   Stroke cap of the paint.
+     * @param join  Stroke join of the paint.
+     * @param antiAlias Whether the paint is anti-aliased.
+     * @param dither    Whether the paint is dithered.
+     * @return The shared style.
+     * @throws IllegalArgumentException if style, cap or join are null.
+     */
+    public static synchronized PaintStyle intern(@ColorInt int color, float width, Paint.Style style,
+                                                 Paint.Cap cap, Paint.Join join, boolean antiAlias,
+                                                 boolean dither) {
+        if (style == null || cap == null || join == null) {
+            throw new IllegalArgumentException("Null style, cap or join");
+        }
+
+        expungeReleased();
+        PaintStyle key = new PaintStyle(color, width, style, cap, join, antiAlias, dither);
+        WeakReference<PaintStyle> ref = sTable.get(key);
+        PaintStyle interned = ref == null ? null : ref.get();
+        if (interned == null) {
+            interned = key;
+            interned.mId = sNextId++;
+            sById.put(interned.mId, new StyleReference(interned, sReleased));
+            sTable.put(interned, new WeakReference<>(interned));
+        }
+        return interned;
+    }
+
+    /**
+     * Forgets the identifiers of styles which have been released since the last call.
+     */
+    private static void expungeReleased() {
+        Reference<? extends PaintStyle> ref;
+        while ((ref = sReleased.poll()) != null) {
+            sById.remove(((StyleReference) ref).mId);
+        }
+    }
+
+    /**
+     * Gets the interned style with the properties of a paint.
+     *
+     * @param paint Paint to read the properties of.
+     * @return The shared style.
+     */
+    public static PaintStyle of(Paint paint) {
+        return intern(paint.getColor(), paint.getStrokeWidth(), paint.getStyle(),
+                paint.getStrokeCap(), paint.getStrokeJoin(), paint.isAntiAlias(), paint.isDither());
+    }
+
+    /**
+     * Gets an interned style by its identifier. The caller must make sure the style is still
+     * held elsewhere, since released styles can no longer be found.
+     *
+     * @param id    Identifier of the style.
+     * @return The style.
+     * @throws IllegalArgumentException if no live style has this identifier.
+     */
+    public static synchronized PaintStyle get(int id) {
+        StyleReference ref = sById.get(id);
+        PaintStyle style = ref == null ? null : ref.get();
+        if (style == null) {
+            throw new IllegalArgumentException("Unknown style: " + id);
+        }
+        return style;
+    }
+
+    /**
+     * @param color New color.
+     * @return The interned style with this style's properties, but the given color.
+     */
+    public PaintStyle withColor(@ColorInt int color) {
+        return intern(color, mWidth, mStyle, mCap, mJoin, mAntiAlias, mDither);
+    }
+
+    /**
+     * @param width New stroke width.
+     * @return The interned style with this style's properties, but the given stroke width.
+     */
+    public PaintStyle withWidth(float width) {
+        return intern(mColor, width, mStyle, mCap, mJoin, mAntiAlias, mDither);
+    }
+
+    /**
+     * @return Identifier of this style, unique within the process and never reused.
+     */
+    public int getId() {
+        return mId;
+    }
+
+    @ColorInt
+    public int getColor() {
+        return mColor;
+    }
+
+    public float getWidth() {
+        return mWidth;
+    }
+
+    public Paint.Style getStyle() {
+        return mStyle;
+    }
+
+    public Paint.Cap getCap() {
+        return mCap;
+    }
+
+    public Paint.Join getJoin() {
+        return mJoin;
+    }
+
+    public boolean isAntiAlias() {
+        return mAntiAlias;
+    }
+
+    public boolean isDither() {
+        return mDither;
+    }
+
+    /**
+     * Gets the paint with this style's properties, shared by every stroke drawn with this style.
+     * Only styles which are drawn get a paint, so picking many colors does not create many paints.
+     *
+     * @return Paint to draw with. Must not be modified.
+     */
+    public Paint getPaint() {
+        if (mPaint == null) {
+            Paint paint = new Paint();
+            paint.setColor(mColor);
+            paint.setStrokeWidth(mWidth);
+            paint.setStyle(mStyle);
+            paint.setStrokeCap(mCap);
+            paint.setStrokeJoin(mJoin);
+            paint.setAntiAlias(mAntiAlias);
+            paint.setDither(mDither);
+            mPaint = paint;
+        }
+        return mPaint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PaintStyle)) {
+            return false;
+        }
+        PaintStyle other = (PaintStyle) o;
+        return mColor == other.mColor && Float.compare(mWidth, other.mWidth) == 0
+                && mStyle == other.mStyle && mCap == other.mCap && mJoin == other.mJoin
+                && mAntiAlias == other.mAntiAlias && mDither == other.mDither;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = mColor;
+        hash = 31 * hash + Float.floatToIntBits(mWidth);
+        hash = 31 * hash + mStyle.hashCode();
+        hash = 31 * hash + mCap.hashCode();
+        hash = 31 * hash + mJoin.hashCode();
+        hash = 31 * hash + (mAntiAlias ? 1 : 0);
+        return 31 * hash + (mDither ? 1 : 0);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Style " + mId + ": color " + Integer.toHexString(mColor) + ", width " + mWidth;
+    }
+
+    /**
+     * Weak reference to an interned style, which remembers the style's identifier so its entry can
+     * be removed once the style is released.
+     */
+    private static final class StyleReference extends WeakReference<PaintStyle> {
+        private final int mId;
+
+        StyleReference(PaintStyle style, ReferenceQueue<PaintStyle> queue) {
+            super(style, queue);
+            mId = style.mId;
+        }
+    }
+}
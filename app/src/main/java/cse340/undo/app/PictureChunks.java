@@ -0,0 +1,149 @@
+package cse340.undo.app;
+
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups committed strokes into chunks of up to CHUNK_SIZE strokes, in drawing order, and records
+ * each full chunk into a Picture. Drawing replays one picture per chunk instead of issuing a
+ * drawPath per stroke, while staying vector so it is sharp at any scale. The latest chunk is
+ * drawn stroke by stroke until it is full, and a recorded chunk is only recorded again when one of
+ * its strokes is removed.
+ *
+ * @see DrawingView.RenderMode#PICTURE
+ */
+class PictureChunks {
+    /** Number of strokes recorded together. */
+    static final int CHUNK_SIZE = 64;
+
+    /** Strokes recorded together. */
+    private static class Chunk {
+        /** Strokes of this chunk, in drawing order. */
+        final List<Stroke> mStrokes = new ArrayList<>(CHUNK_SIZE);
+
+        /** Area covered by the strokes, used to skip chunks outside the clip. */
+        final RectF mBounds = new RectF();
+
+        /** Whether the chunk was full once, and so is recorded rather than drawn directly. */
+        boolean mSealed;
+
+        /** Recorded strokes (or null if a stroke was removed since, or not sealed). */
+        Picture mPicture;
+    }
+
+    /** Size of the canvas the chunks are recorded for. */
+    private final int mWidth, mHeight;
+
+    /** Chunks in drawing order. Only the last one may be unsealed. */
+    private final List<Chunk> mChunks;
+
+    /** Chunk of each stroke. */
+    private final Map<Stroke, Chunk> mChunkOf;
+
+    /**
+     * Creates an empty set of chunks.
+     *
+     * @param width Width of the canvas, in pixels.
+     * @param height    Height of the canvas, in pixels.
+     * @throws IllegalArgumentException if the size is not positive.
+     */
+    PictureChunks(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Illegal size: " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mChunks = new ArrayList<>();
+        mChunkOf = new HashMap<>();
+    }
+
+    /**
+     * Adds a committed stroke on top of the others, sealing its chunk if it becomes full.
+     *
+     * @param stroke    Stroke to add.
+     */
+    void add(Stroke stroke) {
+        Chunk chunk = mChunks.isEmpty() ? null : mChunks.get(mChunks.size() - 1);
+        if (chunk == null || chunk.mSealed) {
+            chunk = new Chunk();
+            mChunks.add(chunk);
+        }
+
+        if (chunk.mStrokes.isEmpty()) {
+            chunk.mBounds.set(stroke.getBounds());
+        } else {
+            chunk.mBounds.union(stroke.getBounds());
+        }
+        chunk.mStrokes.add(stroke);
+        chunk.mSealed = chunk.mStrokes.size() == CHUNK_SIZE;
+        mChunkOf.put(stroke, chunk);
+    }
+
+    /**
+     * Removes a stroke. Its chunk is recorded again when next drawn.
+     *
+     * @param stroke    Stroke to remove.
+     */
+    void remove(Stroke stroke) {
+        Chunk chunk = mChunkOf.remove(stroke);
+        if (chunk == null) {
+            return;
+        }
+
+        chunk.mStrokes.remove(chunk.mStrokes.lastIndexOf(stroke));
+        chunk.mPicture = null;
+        if (chunk.mStrokes.isEmpty()) {
+            mChunks.remove(chunk);
+            return;
+        }
+
+        chunk.mBounds.set(chunk.mStrokes.get(0).getBounds());
+        for (Stroke other : chunk.mStrokes) {
+            chunk.mBounds.union(other.getBounds());
+        }
+    }
+
+    /**
+     * Draws the chunks which intersect the canvas clip, recording sealed chunks without a picture.
+     *
+     * @param canvas    Canvas of the view, in view coordinates.
+     */
+    void draw(Canvas canvas) {
+        for (Chunk chunk : mChunks) {
+            if (canvas.quickReject(chunk.mBounds, Canvas.EdgeType.AA)) {
+                continue;
+            }
+
+            if (!chunk.mSealed) {
+                for (Stroke stroke : chunk.mStrokes) {
+                    canvas.drawPath(stroke.getPath(), stroke.getPaint());
+                }
+                continue;
+            }
+
+            if (chunk.mPicture == null) {
+                Picture picture = new Picture();
+                Canvas recording = picture.beginRecording(mWidth, mHeight);
+                for (Stroke stroke : chunk.mStrokes) {
+                    recording.drawPath(stroke.getPath(), stroke.getPaint());
+                }
+                picture.endRecording();
+                chunk.mPicture = picture;
+            }
+            canvas.drawPicture(chunk.mPicture);
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Picture chunks: " + mChunks.size() + " chunks of " + mChunkOf.size() + " strokes";
+    }
+}
@@ -3,7 +3,6 @@ package cse340.undo.app;
 import android.annotation.SuppressLint;
 import android.content.res.ColorStateList;
 import android.graphics.Color;
-import android.graphics.Paint;
 import android.os.Bundle;
 import android.support.annotation.ColorInt;
 import android.support.annotation.IdRes;
@@ -11,11 +10,17 @@ import android.support.constraint.ConstraintSet;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
 import cse340.undo.R;
 import cse340.undo.actions.ChangeColorAction;
 import cse340.undo.actions.ChangeThicknessAction;
 import cse340.undo.actions.AbstractReversibleAction;
+import cse340.undo.actions.CompositeAction;
 import cse340.undo.actions.EraseAction;
+import cse340.undo.history.AbstractStackHistory;
 
 public class ReversibleDrawingActivity extends AbstractReversibleDrawingActivity implements AbstractColorPickerView.ColorChangeListener {
     private static final int DEFAULT_COLOR = Color.RED;
@@ -62,16 +67,23 @@ public class ReversibleDrawingActivity extends AbstractReversibleDrawingActivity
         super(history);
     }
 
+    /**
+     * Creates a new AbstractReversibleDrawingActivity backed by the given history model.
+     *
+     * @param model History model used to do/undo/redo actions.
+     */
+    public ReversibleDrawingActivity(AbstractStackHistory model) {
+        super(model);
+    }
+
     @Override
     @SuppressLint("PrivateResource")
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
         // We are providing draw with a default thickness and color for the first line
-        Paint p = mDrawingView.getCurrentPaint();
-        p.setColor(DEFAULT_COLOR);
-        p.setStrokeWidth(DEFAULT_THICKNESS);
-        mDrawingView.setCurrentPaint(p);
+        mDrawingView.setCurrentStyle(mDrawingView.getCurrentStyle()
+                .withColor(DEFAULT_COLOR).withWidth(DEFAULT_THICKNESS));
         mMiniFabSize = getResources().getDimensionPixelSize(R.dimen.design_fab_size_mini);
 
         // TODO: initialize color picker and register color change listener
@@ -105,6 +117,7 @@ public class ReversibleDrawingActivity extends AbstractReversibleDrawingActivity
 
         registerActionListener(this::onAction);
         registerActionUndoListener(this::onActionUndo);
+        registerHistoryJumpListener(this::onHistoryJump);
 
         addCollapsableMenu(R.layout.thickness_menu, ConstraintSet.BOTTOM, ConstraintSet.END, THICKNESS_MENU_ITEMS, this::onThicknessMenuSelected);
         findViewById(R.id.fab_thickness).setOnClickListener((v) ->{
@@ -127,13 +140,16 @@ public class ReversibleDrawingActivity extends AbstractReversibleDrawingActivity
         super.onDestroy();
         deregisterActionListener(this::onAction);
         deregisterActionUndoListener(this::onActionUndo);
+        deregisterHistoryJumpListener(this::onHistoryJump);
         // TODO: deregister the color change listener
         ((ColorPickerView)findViewById(R.id.color_wheel)).removeColorChangeListener(this::onColorSelected);
     }
 
     private void onAction(AbstractReversibleAction action) {
-        if (action instanceof ChangeColorAction) {
-            @ColorInt int currColor = mDrawingView.getCurrentPaint().getColor();
+        if (action instanceof CompositeAction) {
+            onHistoryJump(((CompositeAction) action).getActions(), false);
+        } else if (action instanceof ChangeColorAction) {
+            @ColorInt int currColor = mDrawingView.getCurrentStyle().getColor();
             // TODO: update the color of the color picker if needed
             ((ColorPickerView)findViewById(R.id.color_wheel)).setColor(currColor);
         } else if (action instanceof EraseAction) {
@@ -143,8 +159,10 @@ public class ReversibleDrawingActivity extends AbstractReversibleDrawingActivity
     }
 
     private void onActionUndo(AbstractReversibleAction action) {
-        if (action instanceof ChangeColorAction) {
-            @ColorInt int currColor = mDrawingView.getCurrentPaint().getColor();
+        if (action instanceof CompositeAction) {
+            onHistoryJump(((CompositeAction) action).getActions(), true);
+        } else if (action instanceof ChangeColorAction) {
+            @ColorInt int currColor = mDrawingView.getCurrentStyle().getColor();
             // TODO: update the color of the color picker if needed
             ((ColorPickerView)findViewById(R.id.color_wheel)).setColor(currColor);
         } else if (action instanceof EraseAction) {
@@ -153,6 +171,36 @@ public class ReversibleDrawingActivity extends AbstractReversibleDrawingActivity
         }
     }
 
+    /**
+     * Updates the color picker and eraser button once after several actions were undone or redone.
+     * Each erase action toggles the eraser, so only an odd number of them changes its state.
+     */
+    private void onHistoryJump(List<AbstractReversibleAction> actions, boolean undone) {
+        boolean colorChanged = false;
+        int erases = 0;
+        Deque<AbstractReversibleAction> pending = new ArrayDeque<>(actions);
+        while (!pending.isEmpty()) {
+            AbstractReversibleAction action = pending.pop();
+            if (action instanceof CompositeAction) {
+                ((CompositeAction) action).getActions().forEach(pending::push);
+            } else if (action instanceof ChangeColorAction) {
+                colorChanged = true;
+            } else if (action instanceof EraseAction) {
+                erases++;
+            }
+        }
+
+        if (colorChanged) {
+            ((ColorPickerView)findViewById(R.id.color_wheel)).setColor(mDrawingView.getCurrentStyle().getColor());
+        }
+        if (erases > 0) {
+            if (erases % 2 == 1) {
+                isEraseOn = !isEraseOn;
+            }
+            enableFAB(R.id.fab_erase, isEraseOn);
+        }
+    }
+
     /**
      * Callback for creating an AbstractAction when the user changes the color.
      *
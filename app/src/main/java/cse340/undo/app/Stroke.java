@@ -0,0 +1,422 @@
+package cse340.undo.app;
+
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Geometry of a stroke rendered by DrawingView: its points, the style it is drawn with, and the
+ * identifier of the action that added it. Strokes are registered with DrawingView, which decides
+ * how to render them.
+ *
+ * The points are the touch positions the stroke was drawn through, packed as x and y pairs. The
+ * rendered path starts at the first point, joins the midpoints between consecutive points with
+ * quadratic curves, using each point as the control point, then ends with a line to the last
+ * point. While points are being added, the path stops at the last midpoint so it can be extended.
+ * The path is only built when the stroke is drawn, and may be dropped to save memory.
+ *
+ * @see DrawingView#addStroke(Stroke)
+ */
+public final class Stroke {
+    /** Number of line segments each curve is sampled with when measuring simplification error. */
+    private static final int SIMPLIFY_SAMPLES = 8;
+
+    /** Number of times simplify halves its tolerance before giving up on a stroke. */
+    private static final int SIMPLIFY_ATTEMPTS = 4;
+
+    /** Identifier of the stroke action this stroke belongs to. */
+    private final int mId;
+
+    /** Points of the stroke, as x and y pairs. Only the first mPointCount pairs are used. */
+    private float[] mPoints;
+    private int mPointCount;
+
+    /** The shared paint style with which to draw the path. */
+    private final PaintStyle mStyle;
+
+    /** Path through the points (or null if not built yet, or trimmed). */
+    private Path mPath;
+
+    /** Whether points are still being added, so the path stops at the last midpoint. */
+    private boolean mOpen;
+
+    /** Whether the path is kept once built, or built into sScratchPath every time. */
+    private boolean mPathRetained = true;
+
+    /** Path rebuilt on each getPath call of strokes which don't retain theirs. UI thread only. */
+    private static final Path sScratchPath = new Path();
+
+    /** Area covered by the stroke, including its width (or null if not computed yet). */
+    private RectF mBounds;
+
+    /**
+     * Creates a stroke. The points array is used directly, not copied.
+     *
+     * @param id    Identifier of the stroke action this stroke belongs to.
+     * @param points    Points of the stroke, as x and y pairs.
+     * @param style Style with which to draw the path.
+     * @throws IllegalArgumentException if points or style are null, or points is empty or has an
+     *                                  odd length.
+     */
+    public Stroke(int id, float[] points, PaintStyle style) {
+        if (points == null || style == null) {
+            throw new IllegalArgumentException("Null points or style");
+        }
+        if (points.length < 2 || points.length % 2 != 0) {
+            throw new IllegalArgumentException("Illegal number of coordinates: " + points.length);
+        }
+        this.mId = id;
+        this.mPoints = points;
+        this.mPointCount = points.length / 2;
+        this.mStyle = style;
+    }
+
+    /**
+     * @return Identifier of the stroke action this stroke belongs to.
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * @return Number of points in the stroke.
+     */
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * @return Points of the stroke, as x and y pairs. Only the first getPointCount() pairs are
+     * used. Must not be modified.
+     */
+    public float[] getPoints() {
+        return mPoints;
+    }
+
+    /**
+     * Adds a point to the end of the stroke, such as the stroke being drawn. The path and bounds
+     * are extended rather than rebuilt. The stroke stays open, its path stopping at the last
+     * midpoint, until trimToSize is called.
+     *
+     * @param x Horizontal coordinate of the point.
+     * @param y Vertical coordinate of the point.
+     */
+    public void addPoint(float x, float y) {
+        if (mPointCount * 2 == mPoints.length) {
+            mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+        }
+        float lastX = mPoints[mPointCount * 2 - 2];
+        float lastY = mPoints[mPointCount * 2 - 1];
+        mPoints[mPointCount * 2] = x;
+        mPoints[mPointCount * 2 + 1] = y;
+        mPointCount++;
+
+        if (!mOpen) {
+            // The line to the last point can't be taken back out of the path.
+            mOpen = true;
+            mPath = null;
+        }
+        if (mPath != null) {
+            mPath.quadTo(lastX, lastY, (x + lastX) / 2, (y + lastY) / 2);
+        }
+        if (mBounds != null) {
+            float pad = getPadding(getPaint());
+            mBounds.union(x - pad, y - pad, x + pad, y + pad);
+        }
+    }
+
+    /**
+     * Releases the unused capacity of the points array, once no more points will be added, and ends
+     * the path at the last point.
+     */
+    public void trimToSize() {
+        if (mPoints.length != mPointCount * 2) {
+            mPoints = Arrays.copyOf(mPoints, mPointCount * 2);
+        }
+        if (mOpen) {
+            mOpen = false;
+            if (mPath != null && mPointCount > 1) {
+                mPath.lineTo(mPoints[mPointCount * 2 - 2], mPoints[mPointCount * 2 - 1]);
+            }
+        }
+    }
+
+    /**
+     * Removes the points which barely change the stroke's shape, using the Ramer-Douglas-Peucker
+     * algorithm: the first and last points are kept, then the point farthest from the line between
+     * two kept points is kept if it is further than the tolerance, recursively. Since the rendered
+     * path is not the line through the points, the result is then checked against it: every sample
+     * of the original path must be within the tolerance of the simplified path. Otherwise the
+     * points are reduced again with half the tolerance, a few times before giving up. The stroke
+     * must not be registered with a DrawingView, since its bounds may shrink.
+     *
+     * @param tolerance Maximum distance between the original and simplified paths, in pixels.
+     * @return Number of points removed.
+     */
+    public int simplify(float tolerance) {
+        if (mPointCount <= 2 || tolerance <= 0) {
+            return 0;
+        }
+
+        float[] curve = flatten(mPoints, mPointCount);
+        boolean[] keep = new boolean[mPointCount];
+        int count = 0;
+        float reduceTolerance = tolerance;
+        for (int attempt = 0; ; attempt++) {
+            if (attempt == SIMPLIFY_ATTEMPTS) {
+                return 0;
+            }
+            count = reduce(reduceTolerance, keep);
+            if (count == mPointCount) {
+                return 0;
+            }
+            if (squaredDeviation(curve, keep, count) <= tolerance * tolerance) {
+                break;
+            }
+            reduceTolerance /= 2;
+        }
+
+        for (int i = 0, kept = 0; i < mPointCount; i++) {
+            if (keep[i]) {
+                mPoints[kept * 2] = mPoints[i * 2];
+                mPoints[kept * 2 + 1] = mPoints[i * 2 + 1];
+                kept++;
+            }
+        }
+
+        int removed = mPointCount - count;
+        mPointCount = count;
+        trimToSize();
+        mPath = null;
+        mBounds = null;
+        return removed;
+    }
+
+    /**
+     * Marks the points kept by the Ramer-Douglas-Peucker algorithm with a tolerance.
+     *
+     * @return Number of points kept.
+     */
+    private int reduce(float tolerance, boolean[] keep) {
+        Arrays.fill(keep, false);
+        keep[0] = true;
+        keep[mPointCount - 1] = true;
+        int count = 2;
+
+        // Ranges of point indices still to simplify, as first and last pairs.
+        int[] ranges = new int[64];
+        int top = 0;
+        ranges[top++] = 0;
+        ranges[top++] = mPointCount - 1;
+        float squaredTolerance = tolerance * tolerance;
+        while (top > 0) {
+            int last = ranges[--top];
+            int first = ranges[--top];
+
+            int farthest = -1;
+            float max = squaredTolerance;
+            for (int i = first + 1; i < last; i++) {
+                float distance = Geometry.squaredDistance(mPoints[i * 2], mPoints[i * 2 + 1],
+                        mPoints[first * 2], mPoints[first * 2 + 1], mPoints[last * 2], mPoints[last * 2 + 1]);
+                if (distance > max) {
+                    max = distance;
+                    farthest = i;
+                }
+            }
+
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                count++;
+                if (top + 4 > ranges.length) {
+                    ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                }
+                ranges[top++] = first;
+                ranges[top++] = farthest;
+                ranges[top++] = farthest;
+                ranges[top++] = last;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Measures how far the path through the kept points strays from the original path, sampled.
+     * The samples of the curve around each original point are compared with the curves around the
+     * kept points on either side of it.
+     *
+     * @param curve Samples of the original path, from flatten.
+     * @param keep  Whether each point is kept.
+     * @param count Number of points kept.
+     * @return Squared distance from the farthest original sample to the simplified path.
+     */
+    private float squaredDeviation(float[] curve, boolean[] keep, int count) {
+        float[] kept = new float[count * 2];
+        for (int i = 0, k = 0; i < mPointCount; i++) {
+            if (keep[i]) {
+                kept[k * 2] = mPoints[i * 2];
+                kept[k * 2 + 1] = mPoints[i * 2 + 1];
+                k++;
+            }
+        }
+        float[] simplified = flatten(kept, count);
+
+        float max = 0;
+        int stride = SIMPLIFY_SAMPLES + 1;
+        for (int i = 0, k = -1; i < mPointCount; i++) {
+            if (keep[i]) {
+                k++;
+            }
+            int from = Math.max(0, k - 1) * stride;
+            int to = Math.min(count - 1, k + 1) * stride + SIMPLIFY_SAMPLES;
+            for (int s = i * stride; s < (i + 1) * stride; s++) {
+                float x = curve[s * 2], y = curve[s * 2 + 1];
+                float min = Float.MAX_VALUE;
+                for (int j = from; j < to; j++) {
+                    min = Math.min(min, Geometry.squaredDistance(x, y, simplified[j * 2],
+                            simplified[j * 2 + 1], simplified[j * 2 + 2], simplified[j * 2 + 3]));
+                }
+                max = Math.max(max, min);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Samples the path through points, as built by getPath. Curve i is the one controlled by point
+     * i; the last one is the line to the last point.
+     *
+     * @return SIMPLIFY_SAMPLES + 1 samples of each curve, as x and y pairs.
+     */
+    private static float[] flatten(float[] points, int count) {
+        float[] curve = new float[count * (SIMPLIFY_SAMPLES + 1) * 2];
+        for (int i = 0, k = 0; i < count; i++) {
+            float controlX = points[i * 2], controlY = points[i * 2 + 1];
+            float startX = i == 0 ? controlX : (points[i * 2 - 2] + controlX) / 2;
+            float startY = i == 0 ? controlY : (points[i * 2 - 1] + controlY) / 2;
+            float endX = i == count - 1 ? controlX : (controlX + points[i * 2 + 2]) / 2;
+            float endY = i == count - 1 ? controlY : (controlY + points[i * 2 + 3]) / 2;
+            for (int s = 0; s <= SIMPLIFY_SAMPLES; s++) {
+                float t = (float) s / SIMPLIFY_SAMPLES;
+                float u = 1 - t;
+                curve[k++] = u * u * startX + 2 * u * t * controlX + t * t * endX;
+                curve[k++] = u * u * startY + 2 * u * t * controlY + t * t * endY;
+            }
+        }
+        return curve;
+    }
+
+    /**
+     * Gets the path through the stroke's points, building it if needed. If the stroke doesn't
+     * retain its path, the path is shared with every such stroke, and is only valid until the next
+     * call; it must be drawn right away.
+     *
+     * @return Path for the stroke.
+     */
+    public Path getPath() {
+        if (mPath != null) {
+            return mPath;
+        }
+
+        Path path;
+        if (mPathRetained) {
+            path = new Path();
+            mPath = path;
+        } else {
+            path = sScratchPath;
+            path.reset();
+        }
+        path.moveTo(mPoints[0], mPoints[1]);
+        for (int i = 2; i < mPointCount * 2; i += 2) {
+            float lastX = mPoints[i - 2];
+            float lastY = mPoints[i - 1];
+            path.quadTo(lastX, lastY, (mPoints[i] + lastX) / 2, (mPoints[i + 1] + lastY) / 2);
+        }
+        if (!mOpen && mPointCount > 1) {
+            path.lineTo(mPoints[mPointCount * 2 - 2], mPoints[mPointCount * 2 - 1]);
+        }
+        return path;
+    }
+
+    /**
+     * Drops the path, which is rebuilt from the points the next time the stroke is drawn.
+     */
+    public void trimPath() {
+        mPath = null;
+    }
+
+    /**
+     * Sets whether the path is kept once built. Strokes which are rarely drawn again, such as
+     * those already in a cache or base layer, can give up their path for good; it is rebuilt into
+     * a shared path whenever they are drawn.
+     *
+     * @param retained  True to keep the path, false to drop it and rebuild it on every draw.
+     */
+    public void setPathRetained(boolean retained) {
+        mPathRetained = retained;
+        if (!retained) {
+            mPath = null;
+        }
+    }
+
+    /**
+     * @return Style with which to draw the path.
+     */
+    public PaintStyle getStyle() {
+        return mStyle;
+    }
+
+    /**
+     * @return Paint with which to draw the path, shared with its style. Must not be modified.
+     */
+    public Paint getPaint() {
+        return mStyle.getPaint();
+    }
+
+    /**
+     * Gets the area covered by the stroke: the bounds of its points, padded by getPadding. The
+     * path stays within the points' bounds, since its curves stay within their control points.
+     * Computed once and cached, then extended as points are added.
+     *
+     * @return Bounds of the stroke. Must not be modified.
+     */
+    public RectF getBounds() {
+        if (mBounds == null) {
+            float left = mPoints[0], top = mPoints[1], right = left, bottom = top;
+            for (int i = 2; i < mPointCount * 2; i += 2) {
+                left = Math.min(left, mPoints[i]);
+                right = Math.max(right, mPoints[i]);
+                top = Math.min(top, mPoints[i + 1]);
+                bottom = Math.max(bottom, mPoints[i + 1]);
+            }
+            float pad = getPadding(getPaint());
+            mBounds = new RectF(left - pad, top - pad, right + pad, bottom + pad);
+        }
+        return mBounds;
+    }
+
+    /**
+     * Computes how far a stroked path may paint outside the bounds of its points: half the stroke
+     * width, scaled up for square caps and miter joins, plus one pixel for anti-aliasing.
+     *
+     * @param paint Paint the path is drawn with.
+     * @return Padding around the path's bounds, in pixels.
+     */
+    public static float getPadding(Paint paint) {
+        float half = paint.getStrokeWidth() / 2;
+        if (paint.getStrokeJoin() == Paint.Join.MITER) {
+            half *= Math.max(paint.getStrokeMiter(), (float) Math.sqrt(2));
+        } else if (paint.getStrokeCap() == Paint.Cap.SQUARE) {
+            half *= (float) Math.sqrt(2);
+        }
+        return half + 1;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Stroke " + mId + " (" + mPointCount + " points)";
+    }
+}
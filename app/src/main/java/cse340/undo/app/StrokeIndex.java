@@ -0,0 +1,328 @@
+package cse340.undo.app;
+
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Spatial index over the bounds of committed strokes: a uniform grid of square cells, each with
+ * the strokes whose bounds overlap it. Queries only look at the cells around the queried area, so
+ * finding the strokes under a point or along a path does not scan the whole drawing. Results are
+ * in the order the strokes were added, which is their drawing order.
+ *
+ * @see DrawingView#getStrokeIndex()
+ */
+public class StrokeIndex {
+    /** Default width and height of a cell, in pixels. */
+    public static final float DEFAULT_CELL_SIZE = 128;
+
+    /** A stroke in the index, with the bounds and cells it was indexed with. */
+    private static class Entry {
+        final Stroke mStroke;
+        final RectF mBounds;
+        final long mSequence;
+        final int mLeft, mTop, mRight, mBottom;
+
+        Entry(Stroke stroke, long sequence, float cellSize) {
+            mStroke = stroke;
+            mBounds = new RectF(stroke.getBounds());
+            mSequence = sequence;
+            mLeft = cell(mBounds.left, cellSize);
+            mTop = cell(mBounds.top, cellSize);
+            mRight = cell(mBounds.right, cellSize);
+            mBottom = cell(mBounds.bottom, cellSize);
+        }
+    }
+
+    /** Width and height of a cell, in pixels. */
+    private final float mCellSize;
+
+    /** Non-empty cells, keyed by their packed column and row. */
+    private final Map<Long, List<Entry>> mCells;
+
+    /** Entries of the indexed strokes. */
+    private final Map<Stroke, Entry> mEntries;
+
+    /** Sequence number of the next added stroke. */
+    private long mNextSequence;
+
+    /**
+     * Creates an empty index with the default cell size.
+     */
+    public StrokeIndex() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Creates an empty index.
+     *
+     * @param cellSize  Width and height of a cell, in pixels.
+     * @throws IllegalArgumentException if cellSize is not positive.
+     */
+    public StrokeIndex(float cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("Illegal cell size: " + cellSize);
+        }
+        mCellSize = cellSize;
+        mCells = new HashMap<>();
+        mEntries = new HashMap<>();
+    }
+
+    /**
+     * Indexes a stroke by its current bounds, after every stroke already in the index.
+     *
+     * @param stroke    Stroke to index.
+     * @throws IllegalArgumentException if the stroke is already indexed.
+     */
+    public void add(Stroke stroke) {
+        if (mEntries.containsKey(stroke)) {
+            throw new IllegalArgumentException("Stroke already indexed: " + stroke);
+        }
+        Entry entry = new Entry(stroke, mNextSequence++, mCellSize);
+        mEntries.put(stroke, entry);
+        for (int row = entry.mTop; row <= entry.mBottom; row++) {
+            for (int col = entry.mLeft; col <= entry.mRight; col++) {
+                long key = key(col, row);
+                List<Entry> cell = mCells.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<>();
+                    mCells.put(key, cell);
+                }
+                cell.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Removes a stroke from the index.
+     *
+     * @param stroke    Stroke to remove.
+     * @return True if the stroke was removed, false if it was not indexed.
+     */
+    public boolean remove(Stroke stroke) {
+        Entry entry = mEntries.remove(stroke);
+        if (entry == null) {
+            return false;
+        }
+        for (int row = entry.mTop; row <= entry.mBottom; row++) {
+            for (int col = entry.mLeft; col <= entry.mRight; col++) {
+                long key = key(col, row);
+                List<Entry> cell = mCells.get(key);
+                // Recently added strokes are usually the ones removed.
+                cell.remove(cell.lastIndexOf(entry));
+                if (cell.isEmpty()) {
+                    mCells.remove(key);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes every stroke from the index.
+     */
+    public void clear() {
+        mCells.clear();
+        mEntries.clear();
+    }
+
+    /**
+     * @return Number of indexed strokes.
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Finds the strokes whose bounds contain a point.
+     *
+     * @param x Horizontal coordinate of the point.
+     * @param y Vertical coordinate of the point.
+     * @return Strokes found, in drawing order.
+     */
+    public List<Stroke> queryPoint(float x, float y) {
+        List<Entry> cell = mCells.get(key(cell(x, mCellSize), cell(y, mCellSize)));
+        if (cell == null) {
+            return Collections.emptyList();
+        }
+
+        List<Stroke> found = new ArrayList<>();
+        for (Entry entry : cell) {
+            if (entry.mBounds.contains(x, y)) {
+                found.add(entry.mStroke);
+            }
+        }
+        // Cells are in insertion order.
+        return found;
+    }
+
+    /**
+     * Finds the strokes whose bounds intersect a rectangle.
+     *
+     * @param area  Rectangle to search.
+     * @return Strokes found, in drawing order.
+     */
+    public List<Stroke> queryRect(RectF area) {
+        Set<Entry> found = new LinkedHashSet<>();
+        collect(area.left, area.top, area.right, area.bottom, found);
+        return sorted(found);
+    }
+
+    /**
+     * Finds the strokes whose bounds come within a distance of a polyline, such as the path of an
+     * eraser.
+     *
+     * @param points    Coordinates of the polyline, as x and y pairs.
+     * @param radius    Distance from the polyline to search.
+     * @return Strokes found, in drawing order.
+     * @throws IllegalArgumentException if points has an odd length or radius is negative.
+     */
+    public List<Stroke> queryCorridor(float[] points, float radius) {
+        if (points.length % 2 != 0 || radius < 0) {
+            throw new IllegalArgumentException("Illegal corridor: " + points.length + " coordinates, radius " + radius);
+        }
+
+        Set<Entry> found = new LinkedHashSet<>();
+        Set<Entry> candidates = new LinkedHashSet<>();
+        for (int i = 0; i < points.length; i += 2) {
+            // Each segment is searched by its padded bounding box; a lone point by its own box.
+            // The box also holds strokes far from a diagonal segment, so they are filtered out.
+            int next = Math.min(i + 2, points.length - 2);
+            float x1 = points[i], y1 = points[i + 1], x2 = points[next], y2 = points[next + 1];
+            candidates.clear();
+            collect(Math.min(x1, x2) - radius, Math.min(y1, y2) - radius,
+                    Math.max(x1, x2) + radius, Math.max(y1, y2) + radius, candidates);
+            for (Entry entry : candidates) {
+                if (!found.contains(entry)
+                        && squaredDistance(entry.mBounds, x1, y1, x2, y2) <= radius * radius) {
+                    found.add(entry);
+                }
+            }
+            if (next == i) {
+                break;
+            }
+        }
+        return sorted(found);
+    }
+
+    /**
+     * @return Squared distance from a line segment to a rectangle, or 0 if they intersect.
+     */
+    private static float squaredDistance(RectF rect, float x1, float y1, float x2, float y2) {
+        if (intersects(rect, x1, y1, x2, y2)) {
+            return 0;
+        }
+        // Otherwise, the closest points are an endpoint of the segment or a corner of the rectangle.
+        float distance = Math.min(squaredDistance(rect, x1, y1), squaredDistance(rect, x2, y2));
+        float left = rect.left, top = rect.top, right = rect.right, bottom = rect.bottom;
+        distance = Math.min(distance, Geometry.squaredDistance(left, top, x1, y1, x2, y2));
+        distance = Math.min(distance, Geometry.squaredDistance(right, top, x1, y1, x2, y2));
+        distance = Math.min(distance, Geometry.squaredDistance(left, bottom, x1, y1, x2, y2));
+        return Math.min(distance, Geometry.squaredDistance(right, bottom, x1, y1, x2, y2));
+    }
+
+    /**
+     * @return True if a line segment touches a rectangle, found by clipping the segment to it.
+     */
+    private static boolean intersects(RectF rect, float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1, dy = y2 - y1;
+        float[] p = {-dx, dx, -dy, dy};
+        float[] q = {x1 - rect.left, rect.right - x1, y1 - rect.top, rect.bottom - y1};
+        float from = 0, to = 1;
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return false;
+                }
+            } else if (p[i] < 0) {
+                from = Math.max(from, q[i] / p[i]);
+            } else {
+                to = Math.min(to, q[i] / p[i]);
+            }
+        }
+        return from <= to;
+    }
+
+    /**
+     * @return Squared distance from a point to a rectangle, or 0 if it is inside.
+     */
+    private static float squaredDistance(RectF rect, float x, float y) {
+        float dx = Math.max(0, Math.max(rect.left - x, x - rect.right));
+        float dy = Math.max(0, Math.max(rect.top - y, y - rect.bottom));
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Adds the entries whose bounds intersect a rectangle to a set.
+     */
+    private void collect(float left, float top, float right, float bottom, Set<Entry> found) {
+        int fromCol = cell(left, mCellSize);
+        int toCol = cell(right, mCellSize);
+        int fromRow = cell(top, mCellSize);
+        int toRow = cell(bottom, mCellSize);
+
+        // A huge area is cheaper to test against every stroke than cell by cell.
+        if ((long) (toCol - fromCol + 1) * (toRow - fromRow + 1) > mCells.size()) {
+            for (Entry entry : mEntries.values()) {
+                if (entry.mBounds.intersects(left, top, right, bottom)) {
+                    found.add(entry);
+                }
+            }
+            return;
+        }
+
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int col = fromCol; col <= toCol; col++) {
+                List<Entry> cell = mCells.get(key(col, row));
+                if (cell == null) {
+                    continue;
+                }
+                for (Entry entry : cell) {
+                    if (entry.mBounds.intersects(left, top, right, bottom)) {
+                        found.add(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Strokes of the given entries, in the order they were added.
+     */
+    private static List<Stroke> sorted(Set<Entry> entries) {
+        List<Entry> list = new ArrayList<>(entries);
+        Collections.sort(list, (a, b) -> Long.compare(a.mSequence, b.mSequence));
+        List<Stroke> strokes = new ArrayList<>(list.size());
+        for (Entry entry : list) {
+            strokes.add(entry.mStroke);
+        }
+        return strokes;
+    }
+
+    /**
+     * @return Column or row of the cell containing a coordinate.
+     */
+    private static int cell(float coordinate, float cellSize) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    /**
+     * @return Map key of a cell.
+     */
+    private static long key(int col, int row) {
+        return ((long) col << 32) | (row & 0xffffffffL);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Stroke index: " + mEntries.size() + " strokes in " + mCells.size() + " cells";
+    }
+}
@@ -3,31 +3,44 @@ package cse340.undo.app;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Path;
 import android.view.View;
 
 /**
- * Simple little view which takes a path and paint object and uses and renders them.
+ * Simple little view which takes a stroke and renders it. Used by DrawingView when rendering each
+ * stroke as its own view. Detached views are pooled by DrawingView and may be given another stroke.
+ *
+ * @see DrawingView.RenderMode#VIEWS
  */
 @SuppressLint("ViewConstructor")
 public class StrokeView extends View {
-    /** The path for the stroke that was drawn */
-    protected final Path mPath;
-
-    /** The paint brush with which to draw the path */
-    protected final Paint mPaint;
+    /** The stroke rendered by this view */
+    protected Stroke mStroke;
 
     /**
      * Create a new stroke view to show on the DrawingView
      * @param context the context of this new view
-     * @param path The path that will be added to the new view
-     * @param paint The paint with which to draw the stroke
+     * @param stroke The stroke to render
      */
-    public StrokeView(Context context, Path path, Paint paint) {
+    public StrokeView(Context context, Stroke stroke) {
         super(context);
-        this.mPath = path;
-        this.mPaint = paint;
+        this.mStroke = stroke;
+    }
+
+    /**
+     * @return The stroke this view renders.
+     */
+    public Stroke getStroke() {
+        return mStroke;
+    }
+
+    /**
+     * Renders another stroke, so the view can be reused instead of creating a new one.
+     *
+     * @param stroke    The stroke to render.
+     */
+    public void setStroke(Stroke stroke) {
+        mStroke = stroke;
+        invalidate();
     }
 
     /**
@@ -37,6 +50,6 @@ public class StrokeView extends View {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        canvas.drawPath(mPath, mPaint);
+        canvas.drawPath(mStroke.getPath(), mStroke.getPaint());
     }
 }
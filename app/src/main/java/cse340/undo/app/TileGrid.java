@@ -0,0 +1,214 @@
+package cse340.undo.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Splits the canvas into fixed-size tiles, each with the list of committed strokes which touch it
+ * and its own raster cache. Adding or removing a stroke only updates the tiles its bounds touch,
+ * and tiles are only rendered when they are drawn. The least recently drawn tile bitmaps are
+ * evicted when the grid goes over its memory budget; their stroke lists are kept.
+ *
+ * @see DrawingView.RenderMode#TILED
+ */
+class TileGrid {
+    /** Width and height of a tile, in pixels. */
+    static final int TILE_SIZE = 256;
+
+    /** Bytes used by one tile bitmap. */
+    private static final long TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+    /** A tile of the canvas. */
+    private static class Tile {
+        /** Committed strokes touching this tile, in drawing order. */
+        final List<Stroke> mStrokes = new ArrayList<>();
+
+        /** Rendered strokes (or null if not rendered or evicted). */
+        Bitmap mBitmap;
+
+        /** Whether mBitmap still shows a stroke which was removed. */
+        boolean mStale;
+    }
+
+    /** Number of tile columns and rows. */
+    private final int mColumns, mRows;
+
+    /** Tiles in row-major order (null for tiles no stroke has touched). */
+    private final Tile[] mTiles;
+
+    /** Indices of the tiles with a bitmap, in least recently drawn order. */
+    private final LinkedHashMap<Integer, Tile> mRendered;
+
+    /** Maximum number of tile bitmaps. */
+    private final int mMaxRendered;
+
+    /** Reused canvas and bounds for rendering and drawing tiles. */
+    private final Canvas mTileCanvas;
+    private final Rect mRange, mClip;
+    private final RectF mClipF;
+
+    /**
+     * Creates an empty grid covering a canvas.
+     *
+     * @param width Width of the canvas, in pixels.
+     * @param height    Height of the canvas, in pixels.
+     * @param maxBytes  Maximum number of bytes used by tile bitmaps.
+     * @throws IllegalArgumentException if an argument is not positive.
+     */
+    TileGrid(int width, int height, long maxBytes) {
+        if (width <= 0 || height <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Illegal grid: " + width + "x" + height + ", " + maxBytes);
+        }
+        mColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        mRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        mTiles = new Tile[mColumns * mRows];
+        mRendered = new LinkedHashMap<>(16, 0.75f, true);
+        mMaxRendered = (int) Math.max(1, maxBytes / TILE_BYTES);
+
+        mTileCanvas = new Canvas();
+        mRange = new Rect();
+        mClip = new Rect();
+        mClipF = new RectF();
+    }
+
+    /**
+     * Adds a committed stroke on top of the tiles it touches. Tiles which are rendered get the
+     * stroke drawn onto them directly.
+     *
+     * @param stroke    Stroke to add.
+     */
+    void add(Stroke stroke) {
+        if (!range(stroke.getBounds())) {
+            return;
+        }
+        for (int row = mRange.top; row <= mRange.bottom; row++) {
+            for (int col = mRange.left; col <= mRange.right; col++) {
+                int index = row * mColumns + col;
+                Tile tile = mTiles[index];
+                if (tile == null) {
+                    tile = mTiles[index] = new Tile();
+                }
+                tile.mStrokes.add(stroke);
+                if (tile.mBitmap != null && !tile.mStale) {
+                    drawStroke(tile, col, row, stroke);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a stroke from the tiles it touches, which are rendered again when next drawn.
+     *
+     * @param stroke    Stroke to remove.
+     */
+    void remove(Stroke stroke) {
+        if (!range(stroke.getBounds())) {
+            return;
+        }
+        for (int row = mRange.top; row <= mRange.bottom; row++) {
+            for (int col = mRange.left; col <= mRange.right; col++) {
+                Tile tile = mTiles[row * mColumns + col];
+                if (tile != null && tile.mStrokes.lastIndexOf(stroke) >= 0) {
+                    tile.mStrokes.remove(tile.mStrokes.lastIndexOf(stroke));
+                    tile.mStale = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the tiles within the canvas clip, rendering those without an up-to-date bitmap.
+     *
+     * @param canvas    Canvas of the view, in view coordinates.
+     */
+    void draw(Canvas canvas) {
+        if (!canvas.getClipBounds(mClip)) {
+            return;
+        }
+        mClipF.set(mClip);
+        if (!range(mClipF)) {
+            return;
+        }
+        for (int row = mRange.top; row <= mRange.bottom; row++) {
+            for (int col = mRange.left; col <= mRange.right; col++) {
+                int index = row * mColumns + col;
+                Tile tile = mTiles[index];
+                if (tile == null || tile.mStrokes.isEmpty()) {
+                    continue;
+                }
+
+                if (tile.mBitmap == null || tile.mStale) {
+                    render(index, tile, col, row);
+                } else {
+                    // Mark as recently drawn.
+                    mRendered.get(index);
+                }
+                canvas.drawBitmap(tile.mBitmap, col * TILE_SIZE, row * TILE_SIZE, null);
+            }
+        }
+    }
+
+    /**
+     * Renders every stroke of a tile into its bitmap, allocating one (and evicting the least
+     * recently drawn tiles) if needed.
+     */
+    private void render(int index, Tile tile, int col, int row) {
+        if (tile.mBitmap == null) {
+            Iterator<Tile> eldest = mRendered.values().iterator();
+            while (mRendered.size() >= mMaxRendered && eldest.hasNext()) {
+                // Not recycled, since the bitmap may still be in the current frame.
+                eldest.next().mBitmap = null;
+                eldest.remove();
+            }
+            tile.mBitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+            mRendered.put(index, tile);
+        } else {
+            tile.mBitmap.eraseColor(Color.TRANSPARENT);
+            mRendered.get(index);
+        }
+        tile.mStale = false;
+
+        for (Stroke stroke : tile.mStrokes) {
+            drawStroke(tile, col, row, stroke);
+        }
+    }
+
+    /**
+     * Draws a stroke onto a tile's bitmap.
+     */
+    private void drawStroke(Tile tile, int col, int row, Stroke stroke) {
+        mTileCanvas.setBitmap(tile.mBitmap);
+        mTileCanvas.translate(-col * TILE_SIZE, -row * TILE_SIZE);
+        mTileCanvas.drawPath(stroke.getPath(), stroke.getPaint());
+        mTileCanvas.setBitmap(null);
+    }
+
+    /**
+     * Finds the tiles overlapping an area, storing the inclusive column and row range in mRange.
+     *
+     * @return False if the area is outside the grid.
+     */
+    private boolean range(RectF area) {
+        int left = Math.max(0, (int) Math.floor(area.left / TILE_SIZE));
+        int top = Math.max(0, (int) Math.floor(area.top / TILE_SIZE));
+        int right = Math.min(mColumns - 1, (int) Math.floor(area.right / TILE_SIZE));
+        int bottom = Math.min(mRows - 1, (int) Math.floor(area.bottom / TILE_SIZE));
+        mRange.set(left, top, right, bottom);
+        return left <= right && top <= bottom;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Tiles: " + mColumns + "x" + mRows + ", rendered: " + mRendered.size() + "/" + mMaxRendered;
+    }
+}
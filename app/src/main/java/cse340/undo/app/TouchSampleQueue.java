@@ -0,0 +1,123 @@
+package cse340.undo.app;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size, lock-free queue of touch samples from one producer thread (the UI thread) to one
+ * consumer thread (InkTextureView's render thread). Samples are stored in parallel primitive
+ * arrays used as a ring buffer, so neither side allocates or blocks. Each side only writes its own
+ * index; publishing the tail after writing a slot makes the slot visible to the consumer, and
+ * publishing the head after reading it frees the slot for the producer.
+ *
+ * @see InkTextureView
+ */
+final class TouchSampleQueue {
+    /** A stroke starts at the sample's position, with the sample's style. */
+    static final int BEGIN = 0;
+    /** A point is added to the stroke. */
+    static final int POINT = 1;
+    /** The stroke ends; its ink stays until CLEAR. */
+    static final int END = 2;
+    /** The ink is erased. */
+    static final int CLEAR = 3;
+
+    /** A sample, as read by the consumer. Reused for every poll. */
+    static final class Sample {
+        int mKind;
+        float mX, mY;
+        int mStyleId;
+    }
+
+    /** Capacity minus one, used to wrap indices. */
+    private final int mMask;
+
+    /** Samples, by slot. */
+    private final int[] mKinds;
+    private final float[] mX, mY;
+    private final int[] mStyleIds;
+
+    /** Index of the next sample to read. Only written by the consumer. */
+    private final AtomicLong mHead;
+
+    /** Index of the next sample to write. Only written by the producer. */
+    private final AtomicLong mTail;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param capacity  Maximum number of samples queued. Must be a power of two.
+     * @throws IllegalArgumentException if capacity is not a positive power of two.
+     */
+    TouchSampleQueue(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        mMask = capacity - 1;
+        mKinds = new int[capacity];
+        mX = new float[capacity];
+        mY = new float[capacity];
+        mStyleIds = new int[capacity];
+        mHead = new AtomicLong();
+        mTail = new AtomicLong();
+    }
+
+    /**
+     * Adds a sample, from the producer thread.
+     *
+     * @param kind  BEGIN, POINT, END or CLEAR.
+     * @param x Horizontal coordinate of the sample.
+     * @param y Vertical coordinate of the sample.
+     * @param styleId   Identifier of the PaintStyle of a BEGIN sample.
+     * @return True if the sample was added, false if the queue is full.
+     */
+    boolean offer(int kind, float x, float y, int styleId) {
+        long tail = mTail.get();
+        if (tail - mHead.get() > mMask) {
+            return false;
+        }
+
+        int slot = (int) (tail & mMask);
+        mKinds[slot] = kind;
+        mX[slot] = x;
+        mY[slot] = y;
+        mStyleIds[slot] = styleId;
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Removes the oldest sample, from the consumer thread.
+     *
+     * @param sample    Sample to read into.
+     * @return True if a sample was read, false if the queue is empty.
+     */
+    boolean poll(Sample sample) {
+        long head = mHead.get();
+        if (head == mTail.get()) {
+            return false;
+        }
+
+        int slot = (int) (head & mMask);
+        sample.mKind = mKinds[slot];
+        sample.mX = mX[slot];
+        sample.mY = mY[slot];
+        sample.mStyleId = mStyleIds[slot];
+        mHead.lazySet(head + 1);
+        return true;
+    }
+
+    /**
+     * @return True if no sample is queued. Exact only on the consumer thread.
+     */
+    boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Touch sample queue: " + (mTail.get() - mHead.get()) + " of " + (mMask + 1) + " samples";
+    }
+}
@@ -0,0 +1,131 @@
+package cse340.undo.app;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import cse340.undo.BuildConfig;
+
+/**
+ * Lightweight tracing of the hot paths (touch handling, doing and undoing actions, history
+ * changes). Events are typed and stored as primitives in a fixed-size ring buffer, so recording
+ * one neither allocates nor builds strings; dump logs the most recent ones. In debug builds, the
+ * drawing activity dumps them when ACTION_DUMP is broadcast:
+ * {@code adb shell am broadcast -a cse340.undo.DUMP_TRACE}. Sections are also emitted as
+ * android.os.Trace sections, to show up in systrace and the profiler.
+ *
+ * Calls must be guarded by ENABLED, as in {@code if (Tracer.ENABLED) Tracer.touch(...)}. It is a
+ * constant in release builds, so the guarded calls and their arguments are compiled out.
+ *
+ * Only used from the UI thread.
+ */
+public final class Tracer {
+    /** Whether tracing is compiled in. */
+    public static final boolean ENABLED = BuildConfig.DEBUG;
+
+    private static final String LOG_TAG = "Tracer";
+
+    /** Broadcast action which makes the drawing activity dump the trace. */
+    public static final String ACTION_DUMP = "cse340.undo.DUMP_TRACE";
+
+    /** Types of traced events. */
+    public enum Event {
+        /** Touch events: x and y are the position, and value the number of batched samples. */
+        TOUCH_DOWN, TOUCH_MOVE, TOUCH_UP, TOUCH_CANCEL,
+        /** Actions: value is the action's identity hash, and the action's class is kept. */
+        ACTION_DO, ACTION_UNDO,
+        /** History changes: x and y are the undo and redo counts. */
+        HISTORY
+    }
+
+    /** Number of events kept. */
+    private static final int CAPACITY = 1024;
+
+    /** Ring buffer of events, as parallel arrays. */
+    private static final long[] sTimes = new long[CAPACITY];
+    private static final Event[] sEvents = new Event[CAPACITY];
+    private static final float[] sX = new float[CAPACITY];
+    private static final float[] sY = new float[CAPACITY];
+    private static final int[] sValues = new int[CAPACITY];
+    private static final Class<?>[] sClasses = new Class<?>[CAPACITY];
+
+    /** Total number of events recorded; the next one goes at sCount % CAPACITY. */
+    private static long sCount;
+
+    private Tracer() {
+    }
+
+    /**
+     * Records a touch event.
+     *
+     * @param event Type of touch event.
+     * @param x Horizontal coordinate of the touch.
+     * @param y Vertical coordinate of the touch.
+     * @param samples   Number of samples batched into the event.
+     */
+    public static void touch(Event event, float x, float y, int samples) {
+        record(event, x, y, samples, null);
+    }
+
+    /**
+     * Records an action being done or undone.
+     *
+     * @param event ACTION_DO or ACTION_UNDO.
+     * @param action    The action.
+     */
+    public static void action(Event event, Object action) {
+        record(event, 0, 0, System.identityHashCode(action), action.getClass());
+    }
+
+    /**
+     * Records the size of the history after it changed.
+     *
+     * @param undoCount Number of actions which can be undone.
+     * @param redoCount Number of actions which can be redone.
+     */
+    public static void history(int undoCount, int redoCount) {
+        record(Event.HISTORY, undoCount, redoCount, 0, null);
+    }
+
+    /**
+     * Starts a trace section, which must be ended by end on the same thread.
+     *
+     * @param name  Name of the section. Should be a constant, so no string is built.
+     */
+    public static void begin(String name) {
+        Trace.beginSection(name);
+    }
+
+    /**
+     * Ends the most recently started trace section.
+     */
+    public static void end() {
+        Trace.endSection();
+    }
+
+    /**
+     * Logs the recorded events, oldest first.
+     */
+    public static void dump() {
+        long from = Math.max(0, sCount - CAPACITY);
+        Log.i(LOG_TAG, "Last " + (sCount - from) + " of " + sCount + " events:");
+        for (long i = from; i < sCount; i++) {
+            int slot = (int) (i % CAPACITY);
+            Log.i(LOG_TAG, sTimes[slot] + "ms " + sEvents[slot] + " (" + sX[slot] + ", " + sY[slot]
+                    + ") " + sValues[slot] + (sClasses[slot] != null ? " " + sClasses[slot].getSimpleName() : ""));
+        }
+    }
+
+    /**
+     * Stores an event in the next slot of the ring buffer.
+     */
+    private static void record(Event event, float x, float y, int value, Class<?> type) {
+        int slot = (int) (sCount++ % CAPACITY);
+        sTimes[slot] = SystemClock.uptimeMillis();
+        sEvents[slot] = event;
+        sX[slot] = x;
+        sY[slot] = y;
+        sValues[slot] = value;
+        sClasses[slot] = type;
+    }
+}
@@ -9,11 +9,14 @@ import cse340.undo.actions.AbstractReversibleAction;
  */
 public interface AbstractStackHistory {
     /**
-     * Add a reversible event to the history.
+     * Add a reversible event to the history. If there is nothing to redo, the event may instead be
+     * merged into the most recent one.
      *
      * @param action    Reversible action to be added.
+     * @return True if the action was merged into the most recent event, false if it was added.
+     * @see AbstractReversibleAction#tryMerge(AbstractReversibleAction)
      */
-    void addAction(AbstractReversibleAction action);
+    boolean addAction(AbstractReversibleAction action);
 
     /**
      * Undoes an action.
@@ -47,4 +50,19 @@ public interface AbstractStackHistory {
      * @return True if can redo any actions, false otherwise.
      */
     boolean canRedo();
+
+    /**
+     * How many actions can be undone? This is also the current position in the history, counted
+     * from the oldest action still stored.
+     *
+     * @return Number of consecutive undo calls which would return an action.
+     */
+    int getUndoCount();
+
+    /**
+     * How many actions can be redone?
+     *
+     * @return Number of consecutive redo calls which would return an action.
+     */
+    int getRedoCount();
 }
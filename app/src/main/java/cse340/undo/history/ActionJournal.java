@@ -0,0 +1,901 @@
+package cse340.undo.history;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import cse340.undo.actions.AbstractReversibleAction;
+import cse340.undo.actions.ActionCodec;
+
+/**
+ * Append-only log of the changes made to a history model, so the drawing and its history can be
+ * rebuilt after the process is killed. Each change (an action done, undo, redo, branch selection
+ * or clear) is encoded on the calling thread, then written to the log in batches by a background
+ * thread. The log is only forced to disk by sync, at safe points such as onPause.
+ *
+ * Every few hundred changes, the writer thread folds the previous snapshot and the log into a new
+ * snapshot, and truncates the log: the actions drawn but no longer in the history, then the entries
+ * which can be undone and redone. Replay time then depends on the size of the drawing and its
+ * history rather than on the length of the session, and the history is never kept in memory by
+ * the journal itself.
+ *
+ * Records are framed by their length and CRC, so a record torn by a crash ends the log instead of
+ * corrupting it. Branches other than the one being redone are not journaled, so a TreeHistory only
+ * gets its current branch back.
+ *
+ * @see ActionCodec
+ */
+public class ActionJournal implements Closeable {
+    private static final String LOG_TAG = "ActionJournal";
+
+    /** Names of the files in the journal directory. */
+    private static final String LOG_FILE = "journal.log", SNAPSHOT_FILE = "snapshot",
+            SNAPSHOT_TEMP_FILE = "snapshot.tmp";
+
+    /** Header of snapshot files. */
+    private static final int SNAPSHOT_MAGIC = 0x554e444f, SNAPSHOT_VERSION = 1;
+
+    /**
+     * Types of the journaled changes. OP_MERGE is an action done and merged into the most recent
+     * history entry; it is replayed like OP_DO.
+     */
+    private static final byte OP_DO = 1, OP_UNDO = 2, OP_REDO = 3, OP_SELECT = 4, OP_CLEAR = 5,
+            OP_MERGE = 6;
+
+    /** Largest record accepted when reading, to reject garbage lengths in a torn log. */
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    /** How long changes are batched before they are written. */
+    private static final long FLUSH_DELAY_MS = 250;
+
+    /** How long close waits for pending writes. */
+    private static final long CLOSE_TIMEOUT_MS = 2000;
+
+    /** Number of changes in the log which triggers a snapshot. */
+    private static final int COMPACT_THRESHOLD = 256;
+
+    /**
+     * Applies journaled changes to a history model and its DrawingView during replay.
+     */
+    public interface Replayer {
+        /**
+         * Does an action and adds it to the history.
+         *
+         * @param action    Action to do, which has not been done yet.
+         * @return True if the history merged the action into the most recent one.
+         */
+        boolean replayAction(AbstractReversibleAction action);
+
+        /**
+         * Undoes up to the given number of actions.
+         *
+         * @param steps Number of actions to undo.
+         * @return Number of actions which were undone.
+         */
+        int replayUndo(int steps);
+
+        /**
+         * Redoes up to the given number of actions.
+         *
+         * @param steps Number of actions to redo.
+         * @return Actions which were redone, in order.
+         */
+        List<AbstractReversibleAction> replayRedo(int steps);
+
+        /**
+         * Selects the branch followed by the next redo.
+         *
+         * @param branch    Index of the branch.
+         */
+        void replaySelectBranch(int branch);
+
+        /**
+         * Clears the history, leaving the drawing unchanged.
+         */
+        void replayClear();
+    }
+
+    /**
+     * A change read back from the log or snapshot. Actions are only decoded for replay; snapshots
+     * are built from their encoded records.
+     */
+    private static class Op {
+        final long mSeq;
+        final byte mType;
+        final int mArg;
+        final List<byte[]> mRecords;
+        final AbstractReversibleAction mAction;
+
+        Op(long seq, byte type, int arg, List<byte[]> records, AbstractReversibleAction action) {
+            mSeq = seq;
+            mType = type;
+            mArg = arg;
+            mRecords = records;
+            mAction = action;
+        }
+    }
+
+    /**
+     * Entries of the history as encoded actions, rebuilt on the writer thread from the journal
+     * files to write a snapshot, then dropped.
+     */
+    private static class Mirror {
+        /** Encoded actions which were drawn before the history was last cleared. */
+        final List<byte[]> mBase = new ArrayList<>();
+
+        /** Encoded history entries which can be undone, oldest first. Merged actions share one. */
+        final List<List<byte[]>> mDone = new ArrayList<>();
+
+        /** Encoded history entries which can be redone, next first. */
+        final Deque<List<byte[]>> mRedo = new ArrayDeque<>();
+
+        void apply(Op op) {
+            switch (op.mType) {
+                case OP_DO:
+                case OP_MERGE:
+                    if (op.mType == OP_MERGE && !mDone.isEmpty()) {
+                        mDone.get(mDone.size() - 1).add(op.mRecords.get(0));
+                    } else {
+                        mDone.add(new ArrayList<>(op.mRecords));
+                    }
+                    mRedo.clear();
+                    break;
+                case OP_UNDO:
+                    for (int i = 0; i < op.mArg && !mDone.isEmpty(); i++) {
+                        mRedo.addFirst(mDone.remove(mDone.size() - 1));
+                    }
+                    break;
+                case OP_REDO:
+                    // Entries of a branch the journal didn't see undone are stored in the change.
+                    Iterator<byte[]> unknown = op.mRecords.iterator();
+                    for (int i = 0; i < op.mArg; i++) {
+                        List<byte[]> entry = mRedo.pollFirst();
+                        if (entry == null && unknown.hasNext()) {
+                            entry = new ArrayList<>(1);
+                            entry.add(unknown.next());
+                        }
+                        if (entry != null) {
+                            mDone.add(entry);
+                        }
+                    }
+                    break;
+                case OP_SELECT:
+                    mRedo.clear();
+                    break;
+                case OP_CLEAR:
+                    for (List<byte[]> entry : mDone) {
+                        mBase.addAll(entry);
+                    }
+                    mDone.clear();
+                    mRedo.clear();
+                    break;
+            }
+        }
+    }
+
+    /** Directory holding the log and snapshot. */
+    private final File mDir;
+
+    /** Thread writing to the journal files. Every file operation runs on it, in order. */
+    private final ScheduledExecutorService mWriter;
+
+    /** Framed changes not yet written, and whether a flush is scheduled. */
+    private final Object mPendingLock = new Object();
+    private final ByteArrayOutputStream mPending;
+    private boolean mFlushScheduled;
+
+    /** Open log file (writer thread only; null until the first write). */
+    private FileChannel mLogChannel;
+
+    /** Set when a write fails; the journal stops recording since it can no longer be replayed. */
+    private volatile boolean mFailed;
+
+    /** Whether replay has been called, which must happen before recording. */
+    private boolean mReplayed;
+
+    /** Sequence number of the most recent change. */
+    private long mSeq;
+
+    /** Number of changes in the log since the last snapshot. */
+    private int mTailSize;
+
+    /**
+     * Number of history entries which can be undone, and of those which can be redone that the
+     * journal saw undone, so redoing other entries stores them.
+     */
+    private int mDoneCount, mRedoCount;
+
+    /** Reused buffers for encoding records. */
+    private final ByteArrayOutputStream mRecordBuffer, mActionBuffer;
+
+    /**
+     * Creates a journal stored in the given directory. Nothing is read until replay is called.
+     *
+     * @param dir   Directory for the journal files; created if needed.
+     * @throws IllegalArgumentException if dir is null.
+     */
+    public ActionJournal(File dir) {
+        if (dir == null) {
+            throw new IllegalArgumentException("Null journal directory");
+        }
+        this.mDir = dir;
+
+        mWriter = Executors.newSingleThreadScheduledExecutor();
+        mPending = new ByteArrayOutputStream();
+        mRecordBuffer = new ByteArrayOutputStream();
+        mActionBuffer = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Reads the snapshot and the log after it, and applies every change in order. A torn record
+     * at the end of the log is dropped. If the journal can't be read, it is reset and nothing is
+     * applied. Must be called once, before anything is recorded.
+     *
+     * @param replayer  Applies the changes to the history model and DrawingView.
+     * @return True if the journal was read, false if it was reset.
+     * @throws IllegalStateException if the journal was already replayed.
+     */
+    public boolean replay(Replayer replayer) {
+        if (mReplayed) {
+            throw new IllegalStateException("Journal already replayed");
+        }
+        mReplayed = true;
+
+        List<Op> ops = new ArrayList<>();
+        try {
+            long snapshotSeq = readSnapshot(new File(mDir, SNAPSHOT_FILE), true, ops);
+            mSeq = snapshotSeq;
+
+            int snapshotSize = ops.size();
+            readLog(new File(mDir, LOG_FILE), snapshotSeq, true, ops);
+            mTailSize = ops.size() - snapshotSize;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to read journal, resetting it", e);
+            reset();
+            return false;
+        }
+
+        for (Op op : ops) {
+            switch (op.mType) {
+                case OP_DO:
+                case OP_MERGE:
+                    countAction(replayer.replayAction(op.mAction));
+                    break;
+                case OP_UNDO:
+                    countUndo(replayer.replayUndo(op.mArg));
+                    break;
+                case OP_REDO:
+                    countRedo(replayer.replayRedo(op.mArg).size());
+                    break;
+                case OP_SELECT:
+                    replayer.replaySelectBranch(op.mArg);
+                    mRedoCount = 0;
+                    break;
+                case OP_CLEAR:
+                    replayer.replayClear();
+                    mDoneCount = 0;
+                    mRedoCount = 0;
+                    break;
+            }
+            mSeq = Math.max(mSeq, op.mSeq);
+        }
+
+        Log.i(LOG_TAG, "Replayed " + ops.size() + " changes: " + this);
+        if (mTailSize >= COMPACT_THRESHOLD) {
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * Records an action which was done and added to the history.
+     *
+     * @param action    Action which was done.
+     * @param merged    Whether the history merged it into the most recent action.
+     */
+    public void recordAction(AbstractReversibleAction action, boolean merged) {
+        if (!checkRecording()) {
+            return;
+        }
+        if (!ActionCodec.canEncode(action)) {
+            Log.e(LOG_TAG, "Can't journal action, disabling journal: " + action);
+            mFailed = true;
+            return;
+        }
+
+        DataOutputStream out = startRecord(merged ? OP_MERGE : OP_DO);
+        try {
+            out.write(encode(action));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        finishRecord(out);
+        countAction(merged);
+    }
+
+    /**
+     * Records actions which were undone.
+     *
+     * @param steps Number of actions undone.
+     */
+    public void recordUndo(int steps) {
+        if (recordCount(OP_UNDO, steps)) {
+            countUndo(steps);
+        }
+    }
+
+    /**
+     * Records actions which were redone. Actions of a branch the journal didn't see undone are
+     * stored as they are now, so the next snapshot includes them.
+     *
+     * @param actions   Actions redone, in order.
+     */
+    public void recordRedo(List<AbstractReversibleAction> actions) {
+        if (!checkRecording()) {
+            return;
+        }
+        List<AbstractReversibleAction> unknown =
+                actions.subList(Math.min(actions.size(), mRedoCount), actions.size());
+        for (AbstractReversibleAction action : unknown) {
+            if (!ActionCodec.canEncode(action)) {
+                Log.e(LOG_TAG, "Can't journal action, disabling journal: " + action);
+                mFailed = true;
+                return;
+            }
+        }
+
+        DataOutputStream out = startRecord(OP_REDO);
+        try {
+            out.writeInt(actions.size());
+            out.writeInt(unknown.size());
+            for (AbstractReversibleAction action : unknown) {
+                byte[] record = encode(action);
+                out.writeInt(record.length);
+                out.write(record);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        finishRecord(out);
+        countRedo(actions.size());
+    }
+
+    /**
+     * Records the selection of a redo branch.
+     *
+     * @param branch    Index of the branch selected.
+     */
+    public void recordSelectBranch(int branch) {
+        if (recordCount(OP_SELECT, branch)) {
+            // The journal only knows the entries of the branch which was undone.
+            mRedoCount = 0;
+        }
+    }
+
+    /**
+     * Records that the history was cleared.
+     */
+    public void recordClear() {
+        if (!checkRecording()) {
+            return;
+        }
+        finishRecord(startRecord(OP_CLEAR));
+        mDoneCount = 0;
+        mRedoCount = 0;
+    }
+
+    /**
+     * Writes every recorded change and forces it to disk, in the background.
+     */
+    public void sync() {
+        if (mFailed) {
+            return;
+        }
+        mWriter.execute(() -> {
+            flushPending();
+            force();
+        });
+    }
+
+    /**
+     * Deletes the journal files and forgets every recorded change.
+     */
+    public void reset() {
+        synchronized (mPendingLock) {
+            mPending.reset();
+        }
+        mDoneCount = 0;
+        mRedoCount = 0;
+        mSeq = 0;
+        mTailSize = 0;
+        mFailed = false;
+
+        mWriter.execute(() -> {
+            closeLog();
+            new File(mDir, LOG_FILE).delete();
+            new File(mDir, SNAPSHOT_FILE).delete();
+            new File(mDir, SNAPSHOT_TEMP_FILE).delete();
+        });
+    }
+
+    /**
+     * Writes and syncs every recorded change, then stops the writer thread. Waits briefly for it,
+     * so a new journal on the same directory reads everything.
+     */
+    @Override
+    public void close() {
+        mWriter.execute(() -> {
+            flushPending();
+            force();
+            closeLog();
+        });
+        mWriter.shutdown();
+        try {
+            if (!mWriter.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(LOG_TAG, "Timed out closing journal");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //region Recording
+    /**
+     * @return True if changes can be recorded, false if the journal failed.
+     * @throws IllegalStateException if the journal was not replayed yet.
+     */
+    private boolean checkRecording() {
+        if (!mReplayed) {
+            throw new IllegalStateException("Journal must be replayed before recording");
+        }
+        return !mFailed;
+    }
+
+    /**
+     * Records a change which only has a count.
+     *
+     * @return True if the change was recorded, false if the journal failed.
+     */
+    private boolean recordCount(byte type, int count) {
+        if (!checkRecording()) {
+            return false;
+        }
+        DataOutputStream out = startRecord(type);
+        try {
+            out.writeInt(count);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        finishRecord(out);
+        return true;
+    }
+
+    private void countAction(boolean merged) {
+        if (!merged || mDoneCount == 0) {
+            mDoneCount++;
+        }
+        mRedoCount = 0;
+    }
+
+    private void countUndo(int steps) {
+        steps = Math.min(steps, mDoneCount);
+        mDoneCount -= steps;
+        mRedoCount += steps;
+    }
+
+    private void countRedo(int steps) {
+        mRedoCount -= Math.min(steps, mRedoCount);
+        mDoneCount += steps;
+    }
+
+    /**
+     * Starts encoding a change with the next sequence number.
+     */
+    private DataOutputStream startRecord(byte type) {
+        mRecordBuffer.reset();
+        DataOutputStream out = new DataOutputStream(mRecordBuffer);
+        try {
+            out.writeLong(++mSeq);
+            out.writeByte(type);
+        } catch (IOException e) {
+            // Writing to memory can't fail.
+            throw new IllegalStateException(e);
+        }
+        return out;
+    }
+
+    /**
+     * Frames the change being encoded and hands it to the writer, then compacts the journal if the
+     * log is long enough.
+     */
+    private void finishRecord(DataOutputStream out) {
+        synchronized (mPendingLock) {
+            try {
+                out.flush();
+                writeFrame(new DataOutputStream(mPending), mRecordBuffer.toByteArray());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mWriter.schedule(this::flushPending, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (++mTailSize >= COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Encodes an action in its current state.
+     */
+    private byte[] encode(AbstractReversibleAction action) {
+        mActionBuffer.reset();
+        try {
+            DataOutputStream out = new DataOutputStream(mActionBuffer);
+            ActionCodec.encode(action, out);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return mActionBuffer.toByteArray();
+    }
+
+    /**
+     * Asks the writer to fold the snapshot and the log into a new snapshot, once it has written
+     * every change recorded so far.
+     */
+    private void compact() {
+        if (mFailed) {
+            return;
+        }
+        mTailSize = 0;
+        mWriter.execute(this::writeCompaction);
+    }
+    //endregion
+
+    //region Writer thread
+    /**
+     * Appends every pending change to the log, as one batch.
+     */
+    private void flushPending() {
+        byte[] batch;
+        synchronized (mPendingLock) {
+            batch = mPending.toByteArray();
+            mPending.reset();
+            mFlushScheduled = false;
+        }
+        if (batch.length == 0 || mFailed) {
+            return;
+        }
+
+        try {
+            FileChannel channel = openLog();
+            ByteBuffer buffer = ByteBuffer.wrap(batch);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            fail("Failed to write journal", e);
+        }
+    }
+
+    /**
+     * Forces the log to disk.
+     */
+    private void force() {
+        if (mLogChannel == null || mFailed) {
+            return;
+        }
+        try {
+            mLogChannel.force(false);
+        } catch (IOException e) {
+            fail("Failed to sync journal", e);
+        }
+    }
+
+    private FileChannel openLog() throws IOException {
+        if (mLogChannel == null) {
+            if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                throw new IOException("Can't create " + mDir);
+            }
+            mLogChannel = new FileOutputStream(new File(mDir, LOG_FILE), true).getChannel();
+        }
+        return mLogChannel;
+    }
+
+    private void closeLog() {
+        if (mLogChannel != null) {
+            try {
+                mLogChannel.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to close journal", e);
+            }
+            mLogChannel = null;
+        }
+    }
+
+    /**
+     * Writes every pending change, then reads the snapshot and the log back, folds them into a
+     * new snapshot and truncates the log. Every change in the log is then in the snapshot.
+     */
+    private void writeCompaction() {
+        flushPending();
+        if (mFailed) {
+            return;
+        }
+
+        Mirror mirror = new Mirror();
+        long seq;
+        try {
+            List<Op> ops = new ArrayList<>();
+            seq = readSnapshot(new File(mDir, SNAPSHOT_FILE), false, ops);
+            readLog(new File(mDir, LOG_FILE), seq, false, ops);
+            for (Op op : ops) {
+                mirror.apply(op);
+                seq = Math.max(seq, op.mSeq);
+            }
+        } catch (IOException e) {
+            // The log is kept, so the journal can still be replayed.
+            Log.e(LOG_TAG, "Failed to read journal for compaction", e);
+            return;
+        }
+
+        if (writeSnapshot(seq, mirror)) {
+            try {
+                openLog().truncate(0);
+            } catch (IOException e) {
+                fail("Failed to truncate journal", e);
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot which replays to the given mirror, then atomically replaces the old one.
+     *
+     * @param seq   Sequence number of the last change included in the mirror.
+     * @return True if the snapshot was written.
+     */
+    private boolean writeSnapshot(long seq, Mirror mirror) {
+        File temp = new File(mDir, SNAPSHOT_TEMP_FILE);
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(seq);
+
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(payload);
+
+            // Actions drawn before the last clear are done, then cleared from the history.
+            for (byte[] action : mirror.mBase) {
+                writeSnapshotRecord(out, payload, record, seq, OP_DO, action);
+            }
+            if (!mirror.mBase.isEmpty()) {
+                writeSnapshotRecord(out, payload, record, seq, OP_CLEAR, null);
+            }
+
+            // Entries which can be redone are done with the rest, then undone.
+            for (Collection<List<byte[]>> entries : Arrays.asList(mirror.mDone, mirror.mRedo)) {
+                for (List<byte[]> entry : entries) {
+                    for (int i = 0; i < entry.size(); i++) {
+                        writeSnapshotRecord(out, payload, record, seq, i == 0 ? OP_DO : OP_MERGE,
+                                entry.get(i));
+                    }
+                }
+            }
+            if (!mirror.mRedo.isEmpty()) {
+                payload.reset();
+                record.writeLong(seq);
+                record.writeByte(OP_UNDO);
+                record.writeInt(mirror.mRedo.size());
+                record.flush();
+                writeFrame(out, payload.toByteArray());
+            }
+
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write snapshot", e);
+            temp.delete();
+            return false;
+        }
+
+        if (!temp.renameTo(new File(mDir, SNAPSHOT_FILE))) {
+            Log.e(LOG_TAG, "Failed to replace snapshot");
+            temp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static void writeSnapshotRecord(DataOutputStream out, ByteArrayOutputStream payload,
+                                            DataOutputStream record, long seq, byte type,
+                                            byte[] action) throws IOException {
+        payload.reset();
+        record.writeLong(seq);
+        record.writeByte(type);
+        if (action != null) {
+            record.write(action);
+        }
+        record.flush();
+        writeFrame(out, payload.toByteArray());
+    }
+
+    private void fail(String message, IOException e) {
+        Log.e(LOG_TAG, message + ", disabling journal", e);
+        mFailed = true;
+    }
+    //endregion
+
+    //region Reading
+    /**
+     * Reads every change in a snapshot. Snapshots are replaced atomically, so any damage is an
+     * error rather than a torn write.
+     *
+     * @param decode    Whether to decode the actions, or only read their records.
+     * @return Sequence number of the last change included in the snapshot, or 0 if there is none.
+     */
+    private static long readSnapshot(File file, boolean decode, List<Op> ops) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unknown snapshot format");
+            }
+            long seq = in.readLong();
+
+            byte[] payload;
+            while ((payload = readFrame(in)) != null) {
+                ops.add(parse(payload, decode));
+            }
+            return seq;
+        }
+    }
+
+    /**
+     * Reads the changes in the log which come after the snapshot. The log ends at the first
+     * missing or damaged record, and anything after it is truncated.
+     *
+     * @param decode    Whether to decode the actions, or only read their records.
+     */
+    private static void readLog(File file, long snapshotSeq, boolean decode, List<Op> ops)
+            throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        long length = file.length();
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] payload;
+            while ((payload = readFrame(in)) != null) {
+                Op op = parse(payload, decode);
+                if (op.mSeq > snapshotSeq) {
+                    ops.add(op);
+                }
+                valid += 2 * Integer.BYTES + payload.length;
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Journal ends with a damaged record at " + valid, e);
+        }
+
+        if (valid < length) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+    }
+
+    /**
+     * Writes a record as its length, CRC and payload.
+     */
+    private static void writeFrame(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    /**
+     * Reads a record written by writeFrame.
+     *
+     * @return The payload, or null at the end of the stream.
+     * @throws IOException if the record is incomplete or damaged.
+     */
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > MAX_RECORD_SIZE) {
+            throw new IOException("Illegal record length: " + length);
+        }
+
+        int expected = in.readInt();
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        if ((int) crc.getValue() != expected) {
+            throw new IOException("Record checksum mismatch");
+        }
+        return payload;
+    }
+
+    /**
+     * Decodes a change.
+     *
+     * @param decode    Whether to decode the action done, or only copy its record.
+     */
+    private static Op parse(byte[] payload, boolean decode) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long seq = in.readLong();
+        byte type = in.readByte();
+        switch (type) {
+            case OP_DO:
+            case OP_MERGE:
+                byte[] record = Arrays.copyOfRange(payload, Long.BYTES + 1, payload.length);
+                AbstractReversibleAction action = decode ? ActionCodec.decodeUndone(in) : null;
+                return new Op(seq, type, 0, Collections.singletonList(record), action);
+            case OP_REDO:
+                int steps = in.readInt();
+                int count = in.readInt();
+                List<byte[]> records = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    byte[] unknown = new byte[in.readInt()];
+                    in.readFully(unknown);
+                    records.add(unknown);
+                }
+                return new Op(seq, type, steps, records, null);
+            case OP_UNDO:
+            case OP_SELECT:
+                return new Op(seq, type, in.readInt(), null, null);
+            case OP_CLEAR:
+                return new Op(seq, type, 0, null, null);
+            default:
+                throw new IOException("Unknown journal record: " + type);
+        }
+    }
+    //endregion
+
+    @NonNull
+    public String toString() {
+        return "Journal undo: " + mDoneCount + ", redo: " + mRedoCount + ", log: " + mTailSize
+                + (mFailed ? " (failed)" : "");
+    }
+}
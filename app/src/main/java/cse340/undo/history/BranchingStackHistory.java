@@ -0,0 +1,31 @@
+package cse340.undo.history;
+
+/**
+ * A history which keeps undone actions when a new action is added. Instead of clearing the redo
+ * stack, the new action starts a new branch, and any branch can be chosen to be redone later. Undo
+ * and redo behave as in AbstractStackHistory, with redo following the selected branch.
+ */
+public interface BranchingStackHistory extends AbstractStackHistory {
+    /**
+     * How many branches can be redone from the current position?
+     *
+     * @return Number of branches, or 0 if there is nothing to redo.
+     */
+    int getBranchCount();
+
+    /**
+     * Which branch will be followed by the next redo?
+     *
+     * @return Index of the selected branch in [0, getBranchCount()), or -1 if there are none.
+     */
+    int getSelectedBranch();
+
+    /**
+     * Selects the branch to follow on the next redo. Branches are numbered in the order they were
+     * created, so the most recent branch is getBranchCount() - 1.
+     *
+     * @param branch    Index of the branch in [0, getBranchCount()).
+     * @return True if the branch was selected, false if there is no such branch.
+     */
+    boolean selectBranch(int branch);
+}
@@ -0,0 +1,219 @@
+package cse340.undo.history;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checkpoints of the drawing, taken every few committed strokes. Each keyframe is a bitmap of the
+ * first N strokes, keyed by N, so restoring the canvas to any number of strokes only needs the
+ * nearest keyframe plus the strokes after it. Keyframes may be downscaled to save memory, and the
+ * least recently used ones are evicted when the cache goes over its memory ceiling.
+ *
+ * Each keyframe remembers the identifier of its last stroke. Undoing that stroke keeps the
+ * keyframe, and redoing it makes the keyframe usable again without drawing it anew. Keyframes
+ * which were evicted or refused for lack of memory are remembered the same way, so they are not
+ * drawn again for the same drawing.
+ */
+public class KeyframeCache {
+    /** A keyframe, and the identifier of the last stroke drawn in it. */
+    private static class Frame {
+        final Bitmap mBitmap;
+        final int mLastId;
+
+        Frame(Bitmap bitmap, int lastId) {
+            mBitmap = bitmap;
+            mLastId = lastId;
+        }
+    }
+
+    /** Number of committed strokes between keyframes. */
+    private final int mInterval;
+
+    /** Maximum number of bytes used by the keyframe bitmaps. */
+    private final long mMaxBytes;
+
+    /** Size of the keyframe bitmaps relative to the canvas, in (0, 1]. */
+    private final float mScale;
+
+    /** Keyframes by number of strokes, in least recently used order. */
+    private final LinkedHashMap<Integer, Frame> mFrames;
+
+    /** Identifiers of the last strokes of the keyframes dropped for lack of memory, by key. */
+    private final Map<Integer, Integer> mDropped;
+
+    /** Sum of the allocation sizes of the bitmaps in mFrames. */
+    private long mBytes;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param interval  Number of committed strokes between keyframes.
+     * @param maxBytes  Maximum number of bytes used by the keyframe bitmaps.
+     * @param scale Size of the keyframe bitmaps relative to the canvas, in (0, 1].
+     * @throws IllegalArgumentException if an argument is out of range.
+     */
+    public KeyframeCache(int interval, long maxBytes, float scale) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Illegal interval: " + interval);
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Illegal memory ceiling: " + maxBytes);
+        }
+        if (!(scale > 0 && scale <= 1)) {
+            throw new IllegalArgumentException("Illegal scale: " + scale);
+        }
+        this.mInterval = interval;
+        this.mMaxBytes = maxBytes;
+        this.mScale = scale;
+
+        mFrames = new LinkedHashMap<>(16, 0.75f, true);
+        mDropped = new HashMap<>();
+    }
+
+    /**
+     * @return Number of committed strokes between keyframes.
+     */
+    public int getInterval() {
+        return mInterval;
+    }
+
+    /**
+     * @return Size of the keyframe bitmaps relative to the canvas.
+     */
+    public float getScale() {
+        return mScale;
+    }
+
+    /**
+     * Gets a keyframe and marks it as recently used.
+     *
+     * @param strokes   Number of strokes drawn in the keyframe.
+     * @return The keyframe, or null if it is not cached.
+     */
+    public Bitmap get(int strokes) {
+        Frame frame = mFrames.get(strokes);
+        return frame != null ? frame.mBitmap : null;
+    }
+
+    /**
+     * Checks whether a keyframe should be taken: it is not cached, it fits in the memory ceiling,
+     * and it was not dropped for lack of memory while it had the same last stroke.
+     *
+     * @param strokes   Number of strokes to draw in the keyframe.
+     * @param lastId    Identifier of the last of those strokes.
+     * @param bytes Size of the keyframe bitmap, in bytes.
+     * @return True if the keyframe should be taken.
+     */
+    public boolean wants(int strokes, int lastId, long bytes) {
+        if (bytes > mMaxBytes || mFrames.containsKey(strokes)) {
+            return false;
+        }
+        Integer dropped = mDropped.get(strokes);
+        return dropped == null || dropped != lastId;
+    }
+
+    /**
+     * Adds a keyframe, then evicts the least recently used keyframes until the cache fits in its
+     * memory ceiling. A keyframe larger than the ceiling is refused rather than evicting every
+     * other one. Evicted bitmaps are not recycled, since they may still be on screen.
+     *
+     * @param strokes   Number of strokes drawn in the keyframe.
+     * @param lastId    Identifier of the last stroke drawn in the keyframe.
+     * @param frame Bitmap of the first strokes of the drawing.
+     * @return True if the keyframe was added, false if it was refused.
+     */
+    public boolean put(int strokes, int lastId, Bitmap frame) {
+        Frame old = mFrames.remove(strokes);
+        if (old != null) {
+            mBytes -= old.mBitmap.getAllocationByteCount();
+        }
+        if (frame.getAllocationByteCount() > mMaxBytes) {
+            mDropped.put(strokes, lastId);
+            return false;
+        }
+
+        mFrames.put(strokes, new Frame(frame, lastId));
+        mDropped.remove(strokes);
+        mBytes += frame.getAllocationByteCount();
+
+        Iterator<Map.Entry<Integer, Frame>> eldest = mFrames.entrySet().iterator();
+        while (mBytes > mMaxBytes && eldest.hasNext()) {
+            Map.Entry<Integer, Frame> entry = eldest.next();
+            mBytes -= entry.getValue().mBitmap.getAllocationByteCount();
+            mDropped.put(entry.getKey(), entry.getValue().mLastId);
+            eldest.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Updates the cache after a stroke was added on top of the drawing. If a keyframe (or a
+     * dropped one) of that many strokes had a different last stroke, the drawing has changed since
+     * it was taken, so it and every later keyframe are dropped.
+     *
+     * @param strokes   Number of strokes in the drawing, including the new one.
+     * @param lastId    Identifier of the new stroke.
+     */
+    public void onStrokeAdded(int strokes, int lastId) {
+        Frame frame = mFrames.get(strokes);
+        Integer dropped = mDropped.get(strokes);
+        if ((frame != null && frame.mLastId != lastId) || (dropped != null && dropped != lastId)) {
+            invalidateAfter(strokes - 1);
+        }
+    }
+
+    /**
+     * Finds the cached keyframe with the most strokes, up to the given number of strokes. Does
+     * not change the least recently used order.
+     *
+     * @param strokes   Maximum number of strokes in the keyframe.
+     * @return Number of strokes in that keyframe, or 0 (an empty canvas) if there is none.
+     */
+    public int floorKey(int strokes) {
+        int floor = 0;
+        for (int key : mFrames.keySet()) {
+            if (key <= strokes && key > floor) {
+                floor = key;
+            }
+        }
+        return floor;
+    }
+
+    /**
+     * Drops the keyframes which include a stroke that is no longer part of the drawing, such as a
+     * stroke removed from below others. Removing the top stroke doesn't need this, since its
+     * keyframes are checked by onStrokeAdded if the drawing grows again.
+     *
+     * @param strokes   Number of strokes which are unchanged since the keyframes were taken.
+     */
+    public void invalidateAfter(int strokes) {
+        Iterator<Map.Entry<Integer, Frame>> it = mFrames.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, Frame> entry = it.next();
+            if (entry.getKey() > strokes) {
+                mBytes -= entry.getValue().mBitmap.getAllocationByteCount();
+                it.remove();
+            }
+        }
+        mDropped.keySet().removeIf(key -> key > strokes);
+    }
+
+    /**
+     * Drops every keyframe, and forgets the dropped ones.
+     */
+    public void clear() {
+        mFrames.clear();
+        mDropped.clear();
+        mBytes = 0;
+    }
+
+    @NonNull
+    public String toString() {
+        return "Keyframes: " + mFrames.size() + ", bytes: " + mBytes + "/" + mMaxBytes;
+    }
+}
@@ -0,0 +1,156 @@
+package cse340.undo.history;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import cse340.undo.actions.AbstractReversibleAction;
+
+/**
+ * Keeps a history of actions that have been done and undone using two stacks, like StackHistory,
+ * but limits the history by memory instead of by number of actions. Each action reports its
+ * estimated retained size, and the oldest undo entries are evicted whenever the total goes over the
+ * byte budget. This keeps many cheap actions (color, thickness) while long strokes stay bounded.
+ *
+ * @see AbstractReversibleAction#getRetainedSize()
+ */
+public class MemoryBudgetHistory implements AbstractStackHistory {
+    /** Data structures for storing undo/redo events. */
+    private final Deque<AbstractReversibleAction> mUndoStack, mRedoStack;
+
+    /** Should always be true that mSize <= mBudget, unless only one action is stored. */
+    private final long mBudget;
+
+    /** Sum of the retained sizes of every action in both stacks. */
+    private long mSize;
+
+    /**
+     * Initializes empty undo/redo stacks.
+     *
+     * @param budget    Maximum number of bytes retained by the actions in the history.
+     * @throws IllegalArgumentException if budget is not positive.
+     */
+    public MemoryBudgetHistory(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Illegal budget: " + budget);
+        }
+        this.mBudget = budget;
+
+        mUndoStack = new ArrayDeque<>();
+        mRedoStack = new ArrayDeque<>();
+    }
+
+    /**
+     * Add a reversible event to the history (or merge it into the most recent event), evicting the
+     * oldest events until the history fits in the budget. The newest event is always kept, even if
+     * it is larger than the budget by itself.
+     *
+     * @param action    Reversible action to be added.
+     * @return True if the action was merged into the most recent event, false if it was added.
+     */
+    @Override
+    public boolean addAction(AbstractReversibleAction action) {
+        AbstractReversibleAction top = mUndoStack.peekFirst();
+        if (top != null && mRedoStack.isEmpty()) {
+            int before = top.getRetainedSize();
+            if (top.tryMerge(action)) {
+                mSize += top.getRetainedSize() - before;
+                return true;
+            }
+        }
+
+        for (AbstractReversibleAction redo : mRedoStack) {
+            mSize -= redo.getRetainedSize();
+        }
+        mRedoStack.clear();
+
+        mUndoStack.addFirst(action);
+        mSize += action.getRetainedSize();
+
+        while (mSize > mBudget && mUndoStack.size() > 1) {
+            mSize -= mUndoStack.removeLast().getRetainedSize();
+        }
+        return false;
+    }
+
+    /**
+     * Undoes an action.
+     *
+     * @return null if there is nothing to undo, otherwise the action to be undone.
+     */
+    @Override
+    public AbstractReversibleAction undo() {
+        if (mUndoStack.isEmpty()) {
+            return null;
+        }
+
+        AbstractReversibleAction action = mUndoStack.removeFirst();
+        mRedoStack.addFirst(action);
+        return action;
+    }
+
+    /**
+     * Redoes an action.
+     *
+     * @return null if there is nothing to redo, otherwise the action to be redone.
+     */
+    @Override
+    public AbstractReversibleAction redo() {
+        if (mRedoStack.isEmpty()) {
+            return null;
+        }
+
+        AbstractReversibleAction action = mRedoStack.removeFirst();
+        mUndoStack.addFirst(action);
+        return action;
+    }
+
+    /**
+     * Clears the history.
+     */
+    @Override
+    public void clear() {
+        mUndoStack.clear();
+        mRedoStack.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Is there anything that can be undone?
+     *
+     * @return True if can undo any actions, false otherwise.
+     */
+    @Override
+    public boolean canUndo() {
+        return !mUndoStack.isEmpty();
+    }
+
+    /**
+     * Is there anything that can be done?
+     *
+     * @return True if can redo any actions, false otherwise.
+     */
+    @Override
+    public boolean canRedo() {
+        return !mRedoStack.isEmpty();
+    }
+
+    /** @inheritDoc */
+    @Override
+    public int getUndoCount() {
+        return mUndoStack.size();
+    }
+
+    /** @inheritDoc */
+    @Override
+    public int getRedoCount() {
+        return mRedoStack.size();
+    }
+
+    @NonNull
+    public String toString() {
+        return "Undo size: " + mUndoStack.size() + ", redo size: " + mRedoStack.size()
+                + ", bytes: " + mSize + "/" + mBudget;
+    }
+}
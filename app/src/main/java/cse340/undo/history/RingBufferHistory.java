@@ -0,0 +1,165 @@
+package cse340.undo.history;
+
+import android.support.annotation.NonNull;
+
+import cse340.undo.actions.AbstractReversibleAction;
+
+/**
+ * Keeps a history of actions that have been done and undone in a single preallocated array used as
+ * a ring buffer. Undo entries occupy the slots from the oldest entry up to a cursor, and redo entries
+ * occupy the slots just after the cursor, most recently undone first. Undoing and redoing only move
+ * the cursor, so no list nodes are allocated or freed. When the buffer is full, the oldest entry is
+ * overwritten.
+ */
+public class RingBufferHistory implements AbstractStackHistory {
+    /** Storage for both undo and redo events. */
+    private final AbstractReversibleAction[] mActions;
+
+    /** Physical index of the oldest entry in mActions. */
+    private int mBottom;
+
+    /** Number of undo entries, which is also the logical position of the cursor. */
+    private int mUndoSize;
+
+    /** Number of redo entries after the cursor. Always true that mUndoSize + mRedoSize <= capacity. */
+    private int mRedoSize;
+
+    /**
+     * Initializes an empty history.
+     *
+     * @param capacity  Maximum number of undo/redo entries.
+     * @throws IllegalArgumentException if capacity is not positive.
+     */
+    public RingBufferHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+
+        mActions = new AbstractReversibleAction[capacity];
+    }
+
+    /**
+     * Add a reversible event to the history, or merge it into the most recent event. Overwrites the
+     * oldest entry if the buffer is full.
+     *
+     * @param action    Reversible action to be added.
+     * @return True if the action was merged into the most recent event, false if it was added.
+     */
+    @Override
+    public boolean addAction(AbstractReversibleAction action) {
+        if (mUndoSize > 0 && mRedoSize == 0 && mActions[physical(mUndoSize - 1)].tryMerge(action)) {
+            return true;
+        }
+
+        // Drop references to the redo entries so they can be collected.
+        for (int i = 0; i < mRedoSize; i++) {
+            mActions[physical(mUndoSize + i)] = null;
+        }
+        mRedoSize = 0;
+
+        if (mUndoSize == mActions.length) {
+            // The cursor slot is the oldest entry; overwrite it and advance the bottom.
+            mActions[mBottom] = action;
+            mBottom = physical(1);
+        } else {
+            mActions[physical(mUndoSize)] = action;
+            mUndoSize++;
+        }
+        return false;
+    }
+
+    /**
+     * Undoes an action.
+     *
+     * @return null if there is nothing to undo, otherwise the action to be undone.
+     */
+    @Override
+    public AbstractReversibleAction undo() {
+        if (mUndoSize == 0) {
+            return null;
+        }
+
+        // The entry stays in place and becomes the top of the redo entries.
+        mUndoSize--;
+        mRedoSize++;
+        return mActions[physical(mUndoSize)];
+    }
+
+    /**
+     * Redoes an action.
+     *
+     * @return null if there is nothing to redo, otherwise the action to be redone.
+     */
+    @Override
+    public AbstractReversibleAction redo() {
+        if (mRedoSize == 0) {
+            return null;
+        }
+
+        AbstractReversibleAction action = mActions[physical(mUndoSize)];
+        mUndoSize++;
+        mRedoSize--;
+        return action;
+    }
+
+    /**
+     * Clears the history.
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < mUndoSize + mRedoSize; i++) {
+            mActions[physical(i)] = null;
+        }
+        mBottom = 0;
+        mUndoSize = 0;
+        mRedoSize = 0;
+    }
+
+    /**
+     * Is there anything that can be undone?
+     *
+     * @return True if can undo any actions, false otherwise.
+     */
+    @Override
+    public boolean canUndo() {
+        return mUndoSize > 0;
+    }
+
+    /**
+     * Is there anything that can be done?
+     *
+     * @return True if can redo any actions, false otherwise.
+     */
+    @Override
+    public boolean canRedo() {
+        return mRedoSize > 0;
+    }
+
+    /** @inheritDoc */
+    @Override
+    public int getUndoCount() {
+        return mUndoSize;
+    }
+
+    /** @inheritDoc */
+    @Override
+    public int getRedoCount() {
+        return mRedoSize;
+    }
+
+    /**
+     * Converts a logical position, counted from the oldest entry, into an index in mActions.
+     *
+     * @param position  Logical position in [0, capacity].
+     * @return Physical index into mActions.
+     */
+    private int physical(int position) {
+        int index = mBottom + position;
+        return index >= mActions.length ? index - mActions.length : index;
+    }
+
+    @NonNull
+    public String toString() {
+        return "Undo size: " + mUndoSize + ", redo size: " + mRedoSize;
+    }
+}
@@ -0,0 +1,393 @@
+package cse340.undo.history;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Supplier;
+
+import cse340.undo.actions.AbstractReversibleAction;
+import cse340.undo.actions.ActionCodec;
+
+/**
+ * Keeps a history of actions that have been done and undone in two tiers. The most recent undo
+ * and redo actions are kept in memory, like StackHistory. Older ones are encoded with ActionCodec
+ * and spilled to memory-mapped files, each used as a stack of records: one for undo actions and
+ * one for redo actions, in a sibling file with a ".redo" suffix. When undo or redo empties its
+ * memory tier, the most recent record is paged back in.
+ *
+ * Redo actions, in memory or on disk, are cleared by the next new action.
+ *
+ * @see ActionCodec
+ */
+public class SpillingStackHistory implements AbstractStackHistory, Closeable {
+    private static final String LOG_TAG = "SpillingStackHistory";
+
+    /** Initial size of a file mapping; it doubles whenever it is full. */
+    private static final int INITIAL_MAP_SIZE = 256 * 1024;
+
+    /** Data structures for storing undo/redo events in memory. */
+    private final Deque<AbstractReversibleAction> mUndoStack, mRedoStack;
+
+    /** Maximum number of undo events, and of redo events, kept in memory. */
+    private final int mHotCapacity;
+
+    /** Undo and redo events spilled to disk. */
+    private final RecordStack mColdUndo, mColdRedo;
+
+    /** Reused buffer for encoding spilled actions. */
+    private final ByteArrayOutputStream mEncodeBuffer;
+
+    /** Called with each action leaving the memory tier (or null). */
+    private SpillListener mSpillListener;
+
+    /**
+     * Class which defines a listener to be called when an action leaves the memory tier, so that
+     * whatever else still references it (such as the view showing its stroke) can release memory
+     * too.
+     */
+    public interface SpillListener {
+        /**
+         * @param action    Action which was spilled to disk, or dropped if it couldn't be stored.
+         */
+        void onSpilled(AbstractReversibleAction action);
+    }
+
+    /**
+     * Initializes empty undo/redo stacks. The spill files are opened lazily, so the supplier may
+     * depend on state that is only available later (such as an Activity's cache directory).
+     *
+     * @param hotCapacity   Maximum number of undo events, and of redo events, kept in memory.
+     * @param fileSupplier  Provides the file to spill older undo events to. Redo events are spilled
+     *                      next to it. Both are truncated when opened.
+     * @throws IllegalArgumentException if hotCapacity is not positive or fileSupplier is null.
+     */
+    public SpillingStackHistory(int hotCapacity, Supplier<File> fileSupplier) {
+        if (hotCapacity <= 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + hotCapacity);
+        }
+        if (fileSupplier == null) {
+            throw new IllegalArgumentException("Null file supplier");
+        }
+        this.mHotCapacity = hotCapacity;
+
+        mUndoStack = new ArrayDeque<>();
+        mRedoStack = new ArrayDeque<>();
+        mColdUndo = new RecordStack(fileSupplier);
+        mColdRedo = new RecordStack(() -> {
+            File file = fileSupplier.get();
+            return new File(file.getParentFile(), file.getName() + ".redo");
+        });
+        mEncodeBuffer = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Add a reversible event to the history, or merge it into the most recent event. If the memory
+     * tier is full, its oldest event is spilled to disk.
+     *
+     * @param action    Reversible action to be added.
+     * @return True if the action was merged into the most recent event, false if it was added.
+     */
+    @Override
+    public boolean addAction(AbstractReversibleAction action) {
+        AbstractReversibleAction top = mUndoStack.peekFirst();
+        if (top != null && !canRedo() && top.tryMerge(action)) {
+            return true;
+        }
+
+        mUndoStack.addFirst(action);
+        mRedoStack.clear();
+        mColdRedo.clear();
+        spillOldest(mUndoStack, mColdUndo);
+        return false;
+    }
+
+    /**
+     * Sets the listener called when an action leaves the memory tier.
+     *
+     * @param listener  Listener to call, or null for none.
+     */
+    public void setSpillListener(SpillListener listener) {
+        mSpillListener = listener;
+    }
+
+    /**
+     * Undoes an action, paging it in from disk if the memory tier is empty. If the redo memory tier
+     * is then full, its oldest event is spilled to disk.
+     *
+     * @return null if there is nothing to undo, otherwise the action to be undone.
+     */
+    @Override
+    public AbstractReversibleAction undo() {
+        AbstractReversibleAction action = pop(mUndoStack, mColdUndo);
+        if (action != null) {
+            mRedoStack.addFirst(action);
+            spillOldest(mRedoStack, mColdRedo);
+        }
+        return action;
+    }
+
+    /**
+     * Redoes an action, paging it in from disk if the memory tier is empty. If the undo memory tier
+     * is then full, its oldest event is spilled to disk.
+     *
+     * @return null if there is nothing to redo, otherwise the action to be redone.
+     */
+    @Override
+    public AbstractReversibleAction redo() {
+        AbstractReversibleAction action = pop(mRedoStack, mColdRedo);
+        if (action != null) {
+            mUndoStack.addFirst(action);
+            spillOldest(mUndoStack, mColdUndo);
+        }
+        return action;
+    }
+
+    /**
+     * Clears the history. The spill files are kept open and reused.
+     */
+    @Override
+    public void clear() {
+        mUndoStack.clear();
+        mRedoStack.clear();
+        mColdUndo.clear();
+        mColdRedo.clear();
+    }
+
+    /**
+     * Is there anything that can be undone?
+     *
+     * @return True if can undo any actions, false otherwise.
+     */
+    @Override
+    public boolean canUndo() {
+        return !mUndoStack.isEmpty() || mColdUndo.mSize > 0;
+    }
+
+    /**
+     * Is there anything that can be done?
+     *
+     * @return True if can redo any actions, false otherwise.
+     */
+    @Override
+    public boolean canRedo() {
+        return !mRedoStack.isEmpty() || mColdRedo.mSize > 0;
+    }
+
+    /** @inheritDoc */
+    @Override
+    public int getUndoCount() {
+        return mUndoStack.size() + mColdUndo.mSize;
+    }
+
+    /** @inheritDoc */
+    @Override
+    public int getRedoCount() {
+        return mRedoStack.size() + mColdRedo.mSize;
+    }
+
+    /**
+     * Closes the spill files. Spilled events are lost, but events in memory can still be undone
+     * or redone.
+     */
+    @Override
+    public void close() {
+        mColdUndo.close();
+        mColdRedo.close();
+    }
+
+    /**
+     * Pops the most recent event of a tiered stack, paging it in from disk if the memory tier is
+     * empty.
+     *
+     * @param hot   Memory tier.
+     * @param cold  Disk tier.
+     * @return The most recent event, or null if there is none.
+     */
+    private AbstractReversibleAction pop(Deque<AbstractReversibleAction> hot, RecordStack cold) {
+        if (hot.isEmpty() && cold.mSize > 0) {
+            AbstractReversibleAction action = pageIn(cold);
+            if (action != null) {
+                return action;
+            }
+        }
+        return hot.pollFirst();
+    }
+
+    /**
+     * Spills the oldest event of a memory tier to disk if the tier is over capacity, and notifies
+     * the spill listener.
+     *
+     * @param hot   Memory tier.
+     * @param cold  Disk tier to spill to.
+     */
+    private void spillOldest(Deque<AbstractReversibleAction> hot, RecordStack cold) {
+        if (hot.size() > mHotCapacity) {
+            AbstractReversibleAction spilled = hot.removeLast();
+            spill(spilled, cold);
+            if (mSpillListener != null) {
+                mSpillListener.onSpilled(spilled);
+            }
+        }
+    }
+
+    /**
+     * Encodes an action and pushes it on top of the records in a spill file. If the action can't
+     * be stored, it is dropped along with every older record, as a bounded history would.
+     *
+     * @param action    Oldest action in the memory tier.
+     * @param cold  Disk tier to spill to.
+     */
+    private void spill(AbstractReversibleAction action, RecordStack cold) {
+        if (!ActionCodec.canEncode(action)) {
+            cold.clear();
+            return;
+        }
+
+        try {
+            mEncodeBuffer.reset();
+            DataOutputStream out = new DataOutputStream(mEncodeBuffer);
+            ActionCodec.encode(action, out);
+            out.flush();
+            cold.push(mEncodeBuffer.toByteArray(), mEncodeBuffer.size());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to spill history, dropping older actions", e);
+            cold.clear();
+        }
+    }
+
+    /**
+     * Pops the most recent record from a spill file and decodes it.
+     *
+     * @param cold  Disk tier to page in from.
+     * @return The decoded action, or null if the file couldn't be read.
+     */
+    private AbstractReversibleAction pageIn(RecordStack cold) {
+        try {
+            return ActionCodec.decode(new DataInputStream(new ByteArrayInputStream(cold.pop())));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to page in history, dropping older actions", e);
+            cold.clear();
+            return null;
+        }
+    }
+
+    @NonNull
+    public String toString() {
+        return "Undo size: " + getUndoCount() + " (" + mColdUndo.mSize + " on disk)"
+                + ", redo size: " + getRedoCount() + " (" + mColdRedo.mSize + " on disk)";
+    }
+
+    /**
+     * A stack of records in a memory-mapped file. Each record is its payload followed by its
+     * length, so the most recent one can be popped from the end.
+     */
+    private static class RecordStack {
+        /** Provides the file when it is first needed. */
+        private final Supplier<File> mFileSupplier;
+
+        /** Open file and its mapping (null until the first push). */
+        private FileChannel mChannel;
+        private MappedByteBuffer mMap;
+
+        /** End of the last record in the mapping. */
+        private int mEnd;
+
+        /** Number of records in the file. */
+        int mSize;
+
+        RecordStack(Supplier<File> fileSupplier) {
+            mFileSupplier = fileSupplier;
+        }
+
+        /**
+         * Pushes a record on top of the stack.
+         *
+         * @param record    Buffer holding the payload.
+         * @param length    Length of the payload.
+         * @throws IOException if the file can't be opened or mapped.
+         */
+        void push(byte[] record, int length) throws IOException {
+            ensureCapacity(mEnd + length + Integer.BYTES);
+            mMap.position(mEnd);
+            mMap.put(record, 0, length);
+            mMap.putInt(length);
+            mEnd = mMap.position();
+            mSize++;
+        }
+
+        /**
+         * Pops the record on top of the stack. Only called when the stack isn't empty.
+         *
+         * @return The payload of the record.
+         */
+        byte[] pop() {
+            int length = mMap.getInt(mEnd - Integer.BYTES);
+            int start = mEnd - Integer.BYTES - length;
+
+            byte[] record = new byte[length];
+            mMap.position(start);
+            mMap.get(record);
+
+            mEnd = start;
+            mSize--;
+            return record;
+        }
+
+        /**
+         * Drops every record. The file is kept open and reused.
+         */
+        void clear() {
+            mEnd = 0;
+            mSize = 0;
+        }
+
+        /**
+         * Closes the file, dropping every record.
+         */
+        void close() {
+            mMap = null;
+            clear();
+            if (mChannel != null) {
+                try {
+                    mChannel.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Failed to close spill file", e);
+                }
+                mChannel = null;
+            }
+        }
+
+        /**
+         * Opens the file if needed, and grows its mapping to hold at least the given size.
+         *
+         * @param size  Number of bytes which must fit in the mapping.
+         * @throws IOException if the file can't be opened or mapped.
+         */
+        private void ensureCapacity(int size) throws IOException {
+            if (mChannel == null) {
+                mChannel = new RandomAccessFile(mFileSupplier.get(), "rw").getChannel();
+                mChannel.truncate(0);
+            }
+
+            if (mMap == null || mMap.capacity() < size) {
+                int capacity = mMap == null ? INITIAL_MAP_SIZE : mMap.capacity();
+                while (capacity < size) {
+                    capacity *= 2;
+                }
+                mMap = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+        }
+    }
+}
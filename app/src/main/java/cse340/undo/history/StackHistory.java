@@ -36,12 +36,18 @@ public class StackHistory implements AbstractStackHistory {
     }
 
     /**
-     * Add a reversible event to the history.
+     * Add a reversible event to the history, or merge it into the most recent event.
      *
      * @param action    Reversible action to be added.
+     * @return True if the action was merged into the most recent event, false if it was added.
      */
     @Override
-    public void addAction(AbstractReversibleAction action) {
+    public boolean addAction(AbstractReversibleAction action) {
+        AbstractReversibleAction top = mUndoStack.peekFirst();
+        if (top != null && mRedoStack.isEmpty() && top.tryMerge(action)) {
+            return true;
+        }
+
         // TODO: support addAction
         // 1. If the stack is full, remove the oldest thing in it
         // 2. Add the new event to the undo stack
@@ -52,6 +58,7 @@ public class StackHistory implements AbstractStackHistory {
         }
         mUndoStack.addFirst(action);
         mRedoStack.clear();
+        return false;
     }
 
     /**
@@ -124,6 +131,18 @@ public class StackHistory implements AbstractStackHistory {
     @Override
     public boolean canRedo() {return !mRedoStack.isEmpty();}
 
+    /** @inheritDoc */
+    @Override
+    public int getUndoCount() {
+        return mUndoStack.size();
+    }
+
+    /** @inheritDoc */
+    @Override
+    public int getRedoCount() {
+        return mRedoStack.size();
+    }
+
     @NonNull
     public String toString() {
         return  "Undo size: " + mUndoStack.size() + ", redo size: " + mRedoStack.size();
@@ -0,0 +1,283 @@
+package cse340.undo.history;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import cse340.undo.actions.AbstractReversibleAction;
+
+/**
+ * Keeps a history of actions that have been done and undone as an undo tree. Each node holds an
+ * action, and its children are the actions that were done right after it, one per branch. Undo
+ * moves to the parent, redo moves to the selected child, and adding an action after an undo starts
+ * a new sibling branch instead of discarding the undone actions.
+ *
+ * Every branch shares one byte budget. When it is exceeded, the oldest actions are evicted from the
+ * root along with any branches that split off before them.
+ *
+ * @see AbstractReversibleAction#getRetainedSize()
+ */
+public class TreeHistory implements BranchingStackHistory {
+    /** A node in the undo tree. */
+    private static class Node {
+        /** Action done when moving into this node (null for the root). */
+        final AbstractReversibleAction mAction;
+
+        /** Parent node (null for the root). */
+        Node mParent;
+
+        /** Child branches, in creation order (null until the first child is added). */
+        List<Node> mChildren;
+
+        /**
+         * Index of the child followed on redo. For every node above the current node, this is the
+         * child on the path to the current node.
+         */
+        int mSelected = -1;
+
+        Node(AbstractReversibleAction action, Node parent) {
+            mAction = action;
+            mParent = parent;
+        }
+
+        int childCount() {
+            return mChildren == null ? 0 : mChildren.size();
+        }
+    }
+
+    /** Maximum number of bytes retained by every action in the tree. */
+    private final long mBudget;
+
+    /** Sum of the retained sizes of every action in the tree. */
+    private long mSize;
+
+    /** Root of the tree, which holds no action. */
+    private Node mRoot;
+
+    /** Node of the most recently done action (or the root if everything is undone). */
+    private Node mCurrent;
+
+    /** Number of actions between the root and mCurrent, i.e. how many times undo can be called. */
+    private int mDepth;
+
+    /**
+     * Initializes an empty tree.
+     *
+     * @param budget    Maximum number of bytes retained by the actions in all branches.
+     * @throws IllegalArgumentException if budget is not positive.
+     */
+    public TreeHistory(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Illegal budget: " + budget);
+        }
+        this.mBudget = budget;
+
+        clear();
+    }
+
+    /**
+     * Add a reversible event to the history as a new branch of the current node, then evict the
+     * oldest events until the tree fits in the budget. If the current node has no branches, the
+     * event may instead be merged into the current node's action.
+     *
+     * @param action    Reversible action to be added.
+     * @return True if the action was merged into the most recent event, false if it was added.
+     */
+    @Override
+    public boolean addAction(AbstractReversibleAction action) {
+        if (mCurrent != mRoot && mCurrent.mChildren == null) {
+            int before = mCurrent.mAction.getRetainedSize();
+            if (mCurrent.mAction.tryMerge(action)) {
+                mSize += mCurrent.mAction.getRetainedSize() - before;
+                evict();
+                return true;
+            }
+        }
+
+        Node node = new Node(action, mCurrent);
+        if (mCurrent.mChildren == null) {
+            mCurrent.mChildren = new ArrayList<>(1);
+        }
+        mCurrent.mChildren.add(node);
+        mCurrent.mSelected = mCurrent.mChildren.size() - 1;
+
+        mCurrent = node;
+        mDepth++;
+        mSize += action.getRetainedSize();
+
+        evict();
+        return false;
+    }
+
+    /**
+     * Undoes an action by moving to the parent node. The parent keeps this branch selected, so a
+     * following redo comes back to it.
+     *
+     * @return null if there is nothing to undo, otherwise the action to be undone.
+     */
+    @Override
+    public AbstractReversibleAction undo() {
+        if (mCurrent == mRoot) {
+            return null;
+        }
+
+        AbstractReversibleAction action = mCurrent.mAction;
+        mCurrent = mCurrent.mParent;
+        mDepth--;
+        return action;
+    }
+
+    /**
+     * Redoes an action by moving to the selected child node.
+     *
+     * @return null if there is nothing to redo, otherwise the action to be redone.
+     */
+    @Override
+    public AbstractReversibleAction redo() {
+        if (mCurrent.mSelected < 0) {
+            return null;
+        }
+
+        mCurrent = mCurrent.mChildren.get(mCurrent.mSelected);
+        mDepth++;
+        return mCurrent.mAction;
+    }
+
+    /**
+     * Clears the history, including every branch.
+     */
+    @Override
+    public void clear() {
+        mRoot = new Node(null, null);
+        mCurrent = mRoot;
+        mDepth = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Is there anything that can be undone?
+     *
+     * @return True if can undo any actions, false otherwise.
+     */
+    @Override
+    public boolean canUndo() {
+        return mCurrent != mRoot;
+    }
+
+    /**
+     * Is there anything that can be done?
+     *
+     * @return True if can redo any actions, false otherwise.
+     */
+    @Override
+    public boolean canRedo() {
+        return mCurrent.mSelected >= 0;
+    }
+
+    /** @inheritDoc */
+    @Override
+    public int getUndoCount() {
+        return mDepth;
+    }
+
+    /**
+     * Counts the actions along the selected branches below the current node. This walks the
+     * branch, so it is linear in the number of actions that can be redone.
+     *
+     * @return Number of consecutive redo calls which would return an action.
+     */
+    @Override
+    public int getRedoCount() {
+        int count = 0;
+        for (Node node = mCurrent; node.mSelected >= 0; node = node.mChildren.get(node.mSelected)) {
+            count++;
+        }
+        return count;
+    }
+
+    /** @inheritDoc */
+    @Override
+    public int getBranchCount() {
+        return mCurrent.childCount();
+    }
+
+    /** @inheritDoc */
+    @Override
+    public int getSelectedBranch() {
+        return mCurrent.mSelected;
+    }
+
+    /** @inheritDoc */
+    @Override
+    public boolean selectBranch(int branch) {
+        if (branch < 0 || branch >= mCurrent.childCount()) {
+            return false;
+        }
+
+        mCurrent.mSelected = branch;
+        return true;
+    }
+
+    /**
+     * Evicts actions from the root until the tree fits in the budget. Each step drops every branch
+     * that leaves the root off the path to the current node, then drops the first action on that
+     * path, promoting its children to the root. The current node itself is never evicted, but its
+     * sibling branches are.
+     */
+    private void evict() {
+        while (mSize > mBudget && mCurrent != mRoot) {
+            Node trunk = mRoot.mChildren.get(mRoot.mSelected);
+            if (mRoot.mChildren.size() > 1) {
+                for (Node child : mRoot.mChildren) {
+                    if (child != trunk) {
+                        mSize -= subtreeSize(child);
+                    }
+                }
+                mRoot.mChildren.clear();
+                mRoot.mChildren.add(trunk);
+                mRoot.mSelected = 0;
+                continue;
+            }
+            if (trunk == mCurrent) {
+                break;
+            }
+
+            mSize -= trunk.mAction.getRetainedSize();
+            mRoot.mChildren = trunk.mChildren;
+            mRoot.mSelected = trunk.mSelected;
+            for (Node child : trunk.mChildren) {
+                child.mParent = mRoot;
+            }
+            mDepth--;
+        }
+    }
+
+    /**
+     * Sums the retained sizes of the actions in a subtree.
+     *
+     * @param node  Root of the subtree.
+     * @return Total retained size, in bytes.
+     */
+    private static long subtreeSize(Node node) {
+        long size = 0;
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(node);
+        while (!pending.isEmpty()) {
+            Node n = pending.pop();
+            size += n.mAction.getRetainedSize();
+            if (n.mChildren != null) {
+                n.mChildren.forEach(pending::push);
+            }
+        }
+        return size;
+    }
+
+    @NonNull
+    public String toString() {
+        return "Undo size: " + mDepth + ", redo branches: " + getBranchCount()
+                + ", bytes: " + mSize + "/" + mBudget;
+    }
+}
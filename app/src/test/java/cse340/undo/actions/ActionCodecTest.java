@@ -0,0 +1,164 @@
+package cse340.undo.actions;
+
+import android.graphics.Paint;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import cse340.undo.app.PaintStyle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Encodes each kind of action, decodes it again, and checks that the decoded action has the same
+ * fields and is done or undone as the original was.
+ */
+public class ActionCodecTest {
+    /** Style of every stroke. */
+    private static final PaintStyle STYLE = PaintStyle.intern(0xFF123456, 12.5f, Paint.Style.STROKE,
+            Paint.Cap.SQUARE, Paint.Join.BEVEL, false, true);
+
+    /**
+     * Encodes an action and decodes the result.
+     */
+    private static AbstractReversibleAction roundTrip(AbstractReversibleAction action)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ActionCodec.encode(action, new DataOutputStream(bytes));
+        return ActionCodec.decode(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static StrokeAction assertStroke(StrokeAction expected,
+                                             AbstractReversibleAction actual) {
+        assertTrue(actual instanceof StrokeAction);
+        StrokeAction stroke = (StrokeAction) actual;
+        assertEquals(expected.getId(), stroke.getId());
+        assertSame(expected.getStyle(), stroke.getStyle());
+        assertEquals(expected.getPointCount(), stroke.getPointCount());
+        assertEquals(expected.isDone(), stroke.isDone());
+        return stroke;
+    }
+
+    @Test
+    public void strokeKeepsQuantizedPoints() throws IOException {
+        // Points on the quantization grid come back exactly.
+        float[] points = {10, 20, 10.5f, 20.25f, 9.0625f, 19};
+        StrokeAction stroke = new StrokeAction(points.clone(), STYLE);
+        StrokeAction decoded = assertStroke(stroke, roundTrip(stroke));
+        assertArrayEquals(points, Arrays.copyOf(decoded.getPoints(), points.length), 0);
+    }
+
+    @Test
+    public void strokeQuantizesPointsWithinHalfAStep() throws IOException {
+        float[] points = {0.3f, 0.7f, 100.01f, 50.99f};
+        StrokeAction stroke = new StrokeAction(points.clone(), STYLE);
+        StrokeAction decoded = assertStroke(stroke, roundTrip(stroke));
+        assertArrayEquals(points, Arrays.copyOf(decoded.getPoints(), points.length), 1 / 32f);
+    }
+
+    @Test
+    public void strokeWithLargeStepsKeepsExactPoints() throws IOException {
+        // Steps too large for shorts are stored as floats.
+        float[] points = {0.3f, 0, 5000.7f, 0, -5000.1f, 3};
+        StrokeAction stroke = new StrokeAction(points.clone(), STYLE);
+        StrokeAction decoded = assertStroke(stroke, roundTrip(stroke));
+        assertArrayEquals(points, Arrays.copyOf(decoded.getPoints(), points.length), 0);
+    }
+
+    @Test
+    public void doneStrokeStaysDone() throws IOException {
+        StrokeAction stroke = new StrokeAction(new float[] {1, 2}, STYLE);
+        stroke.restoreDone(true);
+        assertStroke(stroke, roundTrip(stroke));
+    }
+
+    @Test
+    public void colorChangeKeepsBothColors() throws IOException {
+        ChangeColorAction color = new ChangeColorAction(0xFF00FF00);
+        color.mPrev = 0xFFFF0000;
+        color.restoreDone(true);
+
+        AbstractReversibleAction decoded = roundTrip(color);
+        assertTrue(decoded instanceof ChangeColorAction);
+        assertEquals(0xFF00FF00, ((ChangeColorAction) decoded).mColor);
+        assertEquals(0xFFFF0000, ((ChangeColorAction) decoded).mPrev);
+        assertTrue(decoded.isDone());
+    }
+
+    @Test
+    public void thicknessChangeKeepsBothThicknesses() throws IOException {
+        ChangeThicknessAction thickness = new ChangeThicknessAction(24);
+        thickness.mPrev = 6.5f;
+
+        AbstractReversibleAction decoded = roundTrip(thickness);
+        assertTrue(decoded instanceof ChangeThicknessAction);
+        assertEquals(24, ((ChangeThicknessAction) decoded).mThickness);
+        assertEquals(6.5f, ((ChangeThicknessAction) decoded).mPrev, 0);
+        assertFalse(decoded.isDone());
+    }
+
+    @Test
+    public void eraseKeepsPreviousColor() throws IOException {
+        EraseAction erase = new EraseAction();
+        erase.mPrev = 0xFF0000FF;
+        erase.restoreDone(true);
+
+        AbstractReversibleAction decoded = roundTrip(erase);
+        assertTrue(decoded instanceof EraseAction);
+        assertEquals(0xFF0000FF, ((EraseAction) decoded).mPrev);
+        assertTrue(decoded.isDone());
+    }
+
+    @Test
+    public void compositeKeepsChildrenInOrder() throws IOException {
+        StrokeAction stroke = new StrokeAction(new float[] {3, 4, 5, 6}, STYLE);
+        ChangeColorAction color = new ChangeColorAction(0xFF00FF00);
+        EraseAction erase = new EraseAction();
+        CompositeAction composite = new CompositeAction(Arrays.asList(color, stroke, erase));
+        assertTrue(ActionCodec.canEncode(composite));
+
+        AbstractReversibleAction decoded = roundTrip(composite);
+        assertTrue(decoded instanceof CompositeAction);
+        List<AbstractReversibleAction> children = ((CompositeAction) decoded).getActions();
+        assertEquals(3, children.size());
+        assertTrue(children.get(0) instanceof ChangeColorAction);
+        assertStroke(stroke, children.get(1));
+        assertTrue(children.get(2) instanceof EraseAction);
+    }
+
+    @Test
+    public void decodeUndoneResetsEveryChild() throws IOException {
+        StrokeAction stroke = new StrokeAction(new float[] {1, 1}, STYLE);
+        ChangeColorAction color = new ChangeColorAction(0xFF00FF00);
+        stroke.restoreDone(true);
+        color.restoreDone(true);
+        CompositeAction composite = new CompositeAction(Arrays.asList(stroke, color));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ActionCodec.encode(composite, new DataOutputStream(bytes));
+        AbstractReversibleAction decoded = ActionCodec.decodeUndone(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertFalse(decoded.isDone());
+        for (AbstractReversibleAction child : ((CompositeAction) decoded).getActions()) {
+            assertFalse(child.isDone());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void decodeRejectsUnknownType() throws IOException {
+        ActionCodec.decode(new DataInputStream(new ByteArrayInputStream(new byte[] {99, 0})));
+    }
+}
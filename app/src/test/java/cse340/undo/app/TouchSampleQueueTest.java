@@ -0,0 +1,127 @@
+package cse340.undo.app;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that samples come out of a TouchSampleQueue in order, that a full queue refuses samples
+ * until the consumer frees a slot, and that one producer and one consumer thread agree on every
+ * sample.
+ */
+public class TouchSampleQueueTest {
+    private static final int CAPACITY = 8;
+
+    private static void assertSample(TouchSampleQueue.Sample sample, int kind, float x, float y,
+                                     int styleId) {
+        assertEquals(kind, sample.mKind);
+        assertEquals(x, sample.mX, 0);
+        assertEquals(y, sample.mY, 0);
+        assertEquals(styleId, sample.mStyleId);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacityNotPowerOfTwo() {
+        new TouchSampleQueue(6);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroCapacity() {
+        new TouchSampleQueue(0);
+    }
+
+    @Test
+    public void pollsSamplesInOrder() {
+        TouchSampleQueue queue = new TouchSampleQueue(CAPACITY);
+        TouchSampleQueue.Sample sample = new TouchSampleQueue.Sample();
+        assertTrue(queue.isEmpty());
+        assertFalse(queue.poll(sample));
+
+        assertTrue(queue.offer(TouchSampleQueue.BEGIN, 1, 2, 7));
+        assertTrue(queue.offer(TouchSampleQueue.POINT, 3, 4, 0));
+        assertTrue(queue.offer(TouchSampleQueue.END, 0, 0, 0));
+        assertFalse(queue.isEmpty());
+
+        assertTrue(queue.poll(sample));
+        assertSample(sample, TouchSampleQueue.BEGIN, 1, 2, 7);
+        assertTrue(queue.poll(sample));
+        assertSample(sample, TouchSampleQueue.POINT, 3, 4, 0);
+        assertTrue(queue.poll(sample));
+        assertSample(sample, TouchSampleQueue.END, 0, 0, 0);
+        assertFalse(queue.poll(sample));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void refusesSamplesWhenFull() {
+        TouchSampleQueue queue = new TouchSampleQueue(CAPACITY);
+        TouchSampleQueue.Sample sample = new TouchSampleQueue.Sample();
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(queue.offer(TouchSampleQueue.POINT, i, -i, 0));
+        }
+        assertFalse(queue.offer(TouchSampleQueue.POINT, CAPACITY, -CAPACITY, 0));
+
+        // Polling frees one slot, and the refused sample was not stored.
+        assertTrue(queue.poll(sample));
+        assertSample(sample, TouchSampleQueue.POINT, 0, 0, 0);
+        assertTrue(queue.offer(TouchSampleQueue.CLEAR, 0, 0, 0));
+        for (int i = 1; i < CAPACITY; i++) {
+            assertTrue(queue.poll(sample));
+            assertSample(sample, TouchSampleQueue.POINT, i, -i, 0);
+        }
+        assertTrue(queue.poll(sample));
+        assertSample(sample, TouchSampleQueue.CLEAR, 0, 0, 0);
+        assertFalse(queue.poll(sample));
+    }
+
+    @Test
+    public void wrapsAroundManyTimes() {
+        TouchSampleQueue queue = new TouchSampleQueue(CAPACITY);
+        TouchSampleQueue.Sample sample = new TouchSampleQueue.Sample();
+        for (int i = 0; i < 10 * CAPACITY; i++) {
+            assertTrue(queue.offer(TouchSampleQueue.POINT, i, i + 1, i));
+            assertTrue(queue.offer(TouchSampleQueue.POINT, -i, -i - 1, -i));
+            assertTrue(queue.poll(sample));
+            assertSample(sample, TouchSampleQueue.POINT, i, i + 1, i);
+            assertTrue(queue.poll(sample));
+            assertSample(sample, TouchSampleQueue.POINT, -i, -i - 1, -i);
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void consumerThreadSeesEverySampleInOrder() throws InterruptedException {
+        int count = 200000;
+        TouchSampleQueue queue = new TouchSampleQueue(CAPACITY);
+        int[] mismatches = new int[1];
+
+        Thread consumer = new Thread(() -> {
+            TouchSampleQueue.Sample sample = new TouchSampleQueue.Sample();
+            int next = 0;
+            while (next < count) {
+                if (!queue.poll(sample)) {
+                    Thread.yield();
+                    continue;
+                }
+                // Every field of a slot must be visible once its sample is published.
+                if (sample.mStyleId != next || sample.mX != next || sample.mY != -next) {
+                    mismatches[0]++;
+                }
+                next++;
+            }
+        });
+        consumer.start();
+
+        for (int i = 0; i < count; i++) {
+            while (!queue.offer(TouchSampleQueue.POINT, i, -i, i)) {
+                Thread.yield();
+            }
+        }
+        consumer.join();
+
+        assertEquals(0, mismatches[0]);
+        assertTrue(queue.isEmpty());
+    }
+}
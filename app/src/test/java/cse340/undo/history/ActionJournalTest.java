@@ -0,0 +1,299 @@
+package cse340.undo.history;
+
+import android.graphics.Paint;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import cse340.undo.actions.AbstractReversibleAction;
+import cse340.undo.actions.ChangeThicknessAction;
+import cse340.undo.actions.StrokeAction;
+import cse340.undo.app.PaintStyle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records changes to a history, reopens the journal and checks that replaying it rebuilds the same
+ * history and drawing. The runs cross the compaction threshold, so the change which triggers a
+ * snapshot must end up in it.
+ */
+public class ActionJournalTest {
+    /** Number of changes in the log which triggers a snapshot, as in ActionJournal. */
+    private static final int COMPACT_THRESHOLD = 256;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /** Style of every stroke drawn. */
+    private static final PaintStyle STYLE = PaintStyle.intern(0xFF000000, 8, Paint.Style.STROKE,
+            Paint.Cap.ROUND, Paint.Join.ROUND, true, false);
+
+    /**
+     * Applies journaled changes to a history alone, without a view. The drawing is kept as the
+     * identifiers of the strokes done, in order.
+     */
+    private static class HistoryReplayer implements ActionJournal.Replayer {
+        final StackHistory mHistory = new StackHistory(Integer.MAX_VALUE);
+        final List<Integer> mDrawing = new ArrayList<>();
+
+        @Override
+        public boolean replayAction(AbstractReversibleAction action) {
+            if (action instanceof StrokeAction) {
+                mDrawing.add(((StrokeAction) action).getId());
+            }
+            return mHistory.addAction(action);
+        }
+
+        @Override
+        public int replayUndo(int steps) {
+            int undone = 0;
+            AbstractReversibleAction action;
+            while (undone < steps && (action = mHistory.undo()) != null) {
+                if (action instanceof StrokeAction) {
+                    mDrawing.remove(mDrawing.size() - 1);
+                }
+                undone++;
+            }
+            return undone;
+        }
+
+        @Override
+        public List<AbstractReversibleAction> replayRedo(int steps) {
+            List<AbstractReversibleAction> redone = new ArrayList<>();
+            AbstractReversibleAction action;
+            while (redone.size() < steps && (action = mHistory.redo()) != null) {
+                if (action instanceof StrokeAction) {
+                    mDrawing.add(((StrokeAction) action).getId());
+                }
+                redone.add(action);
+            }
+            return redone;
+        }
+
+        @Override
+        public void replaySelectBranch(int branch) {
+        }
+
+        @Override
+        public void replayClear() {
+            mHistory.clear();
+        }
+    }
+
+    /** History being recorded, and the journal recording it. */
+    private HistoryReplayer mRecorded;
+    private ActionJournal mJournal;
+
+    private File open() {
+        File dir = new File(mFolder.getRoot(), "journal");
+        mRecorded = new HistoryReplayer();
+        mJournal = new ActionJournal(dir);
+        assertTrue(mJournal.replay(mRecorded));
+        return dir;
+    }
+
+    private void doAction(int thickness) {
+        AbstractReversibleAction action = new ChangeThicknessAction(thickness);
+        mJournal.recordAction(action, mRecorded.replayAction(action));
+    }
+
+    private void doStroke() {
+        AbstractReversibleAction action = new StrokeAction(new float[] {0, 0, 1, 1}, STYLE);
+        mJournal.recordAction(action, mRecorded.replayAction(action));
+    }
+
+    private void undo() {
+        mJournal.recordUndo(mRecorded.replayUndo(1));
+    }
+
+    private void redo() {
+        mJournal.recordRedo(mRecorded.replayRedo(1));
+    }
+
+    private void clear() {
+        mRecorded.replayClear();
+        mJournal.recordClear();
+    }
+
+    /**
+     * Closes the journal, replays it into a new history and compares it with the recorded one.
+     */
+    private void assertReplays(File dir) {
+        mJournal.close();
+
+        HistoryReplayer replayed = new HistoryReplayer();
+        ActionJournal journal = new ActionJournal(dir);
+        assertTrue(journal.replay(replayed));
+        journal.close();
+
+        assertEquals(describe(mRecorded.mHistory), describe(replayed.mHistory));
+        assertEquals(mRecorded.mDrawing, replayed.mDrawing);
+    }
+
+    private static String describe(AbstractReversibleAction action) {
+        if (action instanceof StrokeAction) {
+            return "Stroke " + ((StrokeAction) action).getId();
+        }
+        return action.toString();
+    }
+
+    /**
+     * Lists the entries of a history which can be undone, most recent first, then those which can
+     * be redone, next first. Leaves the history as it was.
+     */
+    private static List<String> describe(StackHistory history) {
+        List<String> entries = new ArrayList<>();
+        int undoCount = history.getUndoCount();
+        int redoCount = history.getRedoCount();
+
+        for (int i = 0; i < undoCount; i++) {
+            entries.add("undo " + describe(history.undo()));
+        }
+        for (int i = 0; i < undoCount; i++) {
+            history.redo();
+        }
+        for (int i = 0; i < redoCount; i++) {
+            entries.add("redo " + describe(history.redo()));
+        }
+        for (int i = 0; i < redoCount; i++) {
+            history.undo();
+        }
+        return entries;
+    }
+
+    @Test
+    public void compactionKeepsTriggeringAction() {
+        File dir = open();
+        for (int i = 0; i < COMPACT_THRESHOLD; i++) {
+            doAction(i);
+        }
+        assertReplays(dir);
+    }
+
+    @Test
+    public void compactionKeepsTriggeringUndo() {
+        File dir = open();
+        for (int i = 0; i < COMPACT_THRESHOLD - 1; i++) {
+            doAction(i);
+        }
+        undo();
+        assertReplays(dir);
+    }
+
+    @Test
+    public void compactionKeepsTriggeringRedo() {
+        File dir = open();
+        for (int i = 0; i < COMPACT_THRESHOLD - 2; i++) {
+            doAction(i);
+        }
+        undo();
+        redo();
+        assertReplays(dir);
+    }
+
+    @Test
+    public void compactionKeepsTriggeringClear() {
+        File dir = open();
+        for (int i = 0; i < COMPACT_THRESHOLD - 1; i++) {
+            doAction(i);
+        }
+        clear();
+        doAction(COMPACT_THRESHOLD);
+        assertReplays(dir);
+    }
+
+    @Test
+    public void replaysMixedChangesAcrossSeveralSnapshots() {
+        File dir = open();
+        for (int i = 0; i < 3 * COMPACT_THRESHOLD + 17; i++) {
+            if (i % 7 == 3) {
+                undo();
+            } else if (i % 11 == 5) {
+                redo();
+            } else {
+                doAction(i);
+            }
+        }
+        assertReplays(dir);
+    }
+
+    @Test
+    public void replaysAfterReopeningTwice() {
+        File dir = open();
+        for (int i = 0; i < COMPACT_THRESHOLD + 10; i++) {
+            doAction(i);
+        }
+        mJournal.close();
+
+        // Keep recording into a reopened journal, past another snapshot.
+        HistoryReplayer recorded = new HistoryReplayer();
+        mJournal = new ActionJournal(dir);
+        assertTrue(mJournal.replay(recorded));
+        mRecorded = recorded;
+        for (int i = 0; i < COMPACT_THRESHOLD; i++) {
+            if (i % 3 == 0) {
+                undo();
+            } else {
+                doAction(i);
+            }
+        }
+        assertReplays(dir);
+    }
+
+    @Test
+    public void replaysStrokesAndMergedChangesAcrossSnapshots() {
+        File dir = open();
+        for (int i = 0; i < 2 * COMPACT_THRESHOLD + 9; i++) {
+            if (i % 4 == 0) {
+                doStroke();
+            } else {
+                // Runs of thickness changes merge into one entry between strokes.
+                doAction(i);
+            }
+        }
+        assertReplays(dir);
+    }
+
+    @Test
+    public void replaysUndoneStrokesAcrossSnapshots() {
+        File dir = open();
+        for (int i = 0; i < 20; i++) {
+            doStroke();
+        }
+        for (int i = 0; i < 5; i++) {
+            undo();
+        }
+        // Snapshots taken while strokes are undone must keep them redoable.
+        for (int i = 0; i < COMPACT_THRESHOLD; i++) {
+            redo();
+            undo();
+        }
+        redo();
+        assertReplays(dir);
+    }
+
+    @Test
+    public void replaysStrokesClearedFromHistoryAcrossSnapshots() {
+        File dir = open();
+        for (int i = 0; i < 3 * COMPACT_THRESHOLD + 5; i++) {
+            if (i % 61 == 60) {
+                clear();
+            } else if (i % 7 == 3) {
+                undo();
+            } else if (i % 11 == 5) {
+                redo();
+            } else if (i % 5 == 0) {
+                doAction(i);
+            } else {
+                doStroke();
+            }
+        }
+        assertReplays(dir);
+    }
+}
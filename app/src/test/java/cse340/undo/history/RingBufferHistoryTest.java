@@ -0,0 +1,129 @@
+package cse340.undo.history;
+
+import android.graphics.Paint;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cse340.undo.actions.StrokeAction;
+import cse340.undo.app.PaintStyle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Undoes and redoes strokes through a ring buffer history, and checks that a full buffer overwrites
+ * its oldest entry, including after the cursor has wrapped around.
+ */
+public class RingBufferHistoryTest {
+    private static final int CAPACITY = 4;
+
+    /** Style of every stroke. */
+    private static final PaintStyle STYLE = PaintStyle.intern(0xFF000000, 8, Paint.Style.STROKE,
+            Paint.Cap.ROUND, Paint.Join.ROUND, true, false);
+
+    private RingBufferHistory mHistory;
+
+    @Before
+    public void setUp() {
+        mHistory = new RingBufferHistory(CAPACITY);
+    }
+
+    /**
+     * Adds strokes to the history.
+     *
+     * @return The strokes, in the order they were added.
+     */
+    private StrokeAction[] add(int count) {
+        StrokeAction[] strokes = new StrokeAction[count];
+        for (int i = 0; i < count; i++) {
+            strokes[i] = new StrokeAction(new float[] {i, i}, STYLE);
+            assertFalse(mHistory.addAction(strokes[i]));
+        }
+        return strokes;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveCapacity() {
+        new RingBufferHistory(0);
+    }
+
+    @Test
+    public void undoesAndRedoesInOrder() {
+        StrokeAction[] strokes = add(3);
+        for (int i = 2; i >= 0; i--) {
+            assertSame(strokes[i], mHistory.undo());
+        }
+        assertNull(mHistory.undo());
+        assertEquals(3, mHistory.getRedoCount());
+
+        for (int i = 0; i < 3; i++) {
+            assertSame(strokes[i], mHistory.redo());
+        }
+        assertNull(mHistory.redo());
+        assertEquals(3, mHistory.getUndoCount());
+        assertEquals(0, mHistory.getRedoCount());
+    }
+
+    @Test
+    public void addingClearsRedoEntries() {
+        StrokeAction[] strokes = add(3);
+        mHistory.undo();
+        mHistory.undo();
+        StrokeAction[] added = add(1);
+
+        assertFalse(mHistory.canRedo());
+        assertEquals(2, mHistory.getUndoCount());
+        assertSame(added[0], mHistory.undo());
+        assertSame(strokes[0], mHistory.undo());
+        assertFalse(mHistory.canUndo());
+    }
+
+    @Test
+    public void fullBufferOverwritesOldest() {
+        StrokeAction[] strokes = add(CAPACITY + 2);
+        assertEquals(CAPACITY, mHistory.getUndoCount());
+
+        for (int i = CAPACITY + 1; i >= 2; i--) {
+            assertSame(strokes[i], mHistory.undo());
+        }
+        assertNull(mHistory.undo());
+        assertEquals(CAPACITY, mHistory.getRedoCount());
+    }
+
+    @Test
+    public void wrapsAroundAfterUndoAndAdd() {
+        // Fill past the end of the array, then undo and add so entries straddle the wrap.
+        StrokeAction[] strokes = add(CAPACITY + 1);
+        mHistory.undo();
+        mHistory.undo();
+        StrokeAction[] added = add(3);
+
+        assertEquals(CAPACITY, mHistory.getUndoCount());
+        for (int i = 2; i >= 0; i--) {
+            assertSame(added[i], mHistory.undo());
+        }
+        assertSame(strokes[2], mHistory.undo());
+        assertNull(mHistory.undo());
+
+        assertSame(strokes[2], mHistory.redo());
+        assertSame(added[0], mHistory.redo());
+    }
+
+    @Test
+    public void clearEmptiesHistory() {
+        add(CAPACITY + 1);
+        mHistory.undo();
+        mHistory.clear();
+
+        assertFalse(mHistory.canUndo());
+        assertFalse(mHistory.canRedo());
+        StrokeAction[] strokes = add(1);
+        assertTrue(mHistory.canUndo());
+        assertSame(strokes[0], mHistory.undo());
+        assertNull(mHistory.undo());
+    }
+}
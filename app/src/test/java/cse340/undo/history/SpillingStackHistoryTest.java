@@ -0,0 +1,134 @@
+package cse340.undo.history;
+
+import android.graphics.Paint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import cse340.undo.actions.AbstractReversibleAction;
+import cse340.undo.actions.StrokeAction;
+import cse340.undo.app.PaintStyle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Undoes and redoes strokes through a history which keeps only a few of them in memory, and checks
+ * that strokes spilled to disk come back in order, whichever way they are spilled.
+ */
+public class SpillingStackHistoryTest {
+    /** Number of undo events, and of redo events, kept in memory. */
+    private static final int HOT_CAPACITY = 2;
+
+    /** Number of strokes drawn by each test, enough to spill several of them. */
+    private static final int STROKES = 7;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private SpillingStackHistory mHistory;
+
+    /** Style of every stroke. */
+    private PaintStyle mStyle;
+
+    /** Actions spilled so far. */
+    private List<AbstractReversibleAction> mSpilled;
+
+    /** Identifiers of the strokes drawn, oldest first. */
+    private int[] mIds;
+
+    @Before
+    public void setUp() {
+        File file = new File(mFolder.getRoot(), "spill");
+        mHistory = new SpillingStackHistory(HOT_CAPACITY, () -> file);
+        mSpilled = new ArrayList<>();
+        mHistory.setSpillListener(mSpilled::add);
+
+        mStyle = PaintStyle.intern(0xFF000000, 8, Paint.Style.STROKE, Paint.Cap.ROUND,
+                Paint.Join.ROUND, true, false);
+        mIds = new int[STROKES];
+        for (int i = 0; i < STROKES; i++) {
+            StrokeAction action = new StrokeAction(new float[] {i, i, i + 1, i + 1}, mStyle);
+            mIds[i] = action.getId();
+            assertFalse(mHistory.addAction(action));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mHistory.close();
+    }
+
+    private void undoAll() {
+        while (mHistory.canUndo()) {
+            mHistory.undo();
+        }
+    }
+
+    private static int id(AbstractReversibleAction action) {
+        return ((StrokeAction) action).getId();
+    }
+
+    @Test
+    public void spillsOldestUndoEvents() {
+        assertEquals(STROKES - HOT_CAPACITY, mSpilled.size());
+        assertEquals(mIds[0], id(mSpilled.get(0)));
+        assertEquals(STROKES, mHistory.getUndoCount());
+    }
+
+    @Test
+    public void undoPagesInFromDisk() {
+        for (int i = STROKES - 1; i >= 0; i--) {
+            assertEquals(mIds[i], id(mHistory.undo()));
+        }
+        assertNull(mHistory.undo());
+        assertFalse(mHistory.canUndo());
+        assertEquals(STROKES, mHistory.getRedoCount());
+    }
+
+    @Test
+    public void undoSpillsOldestRedoEvents() {
+        mSpilled.clear();
+        undoAll();
+        // Undone events beyond the memory tier leave it, the furthest from being redone first.
+        assertEquals(STROKES - HOT_CAPACITY, mSpilled.size());
+        assertEquals(mIds[STROKES - 1], id(mSpilled.get(0)));
+    }
+
+    @Test
+    public void redoPagesInFromDiskAndSpillsUndoEvents() {
+        undoAll();
+        mSpilled.clear();
+        for (int i = 0; i < STROKES; i++) {
+            assertEquals(mIds[i], id(mHistory.redo()));
+        }
+        assertNull(mHistory.redo());
+        assertFalse(mHistory.canRedo());
+
+        // Redone events beyond the memory tier are spilled again, and can still be undone.
+        assertEquals(STROKES - HOT_CAPACITY, mSpilled.size());
+        for (int i = STROKES - 1; i >= 0; i--) {
+            assertEquals(mIds[i], id(mHistory.undo()));
+        }
+    }
+
+    @Test
+    public void newActionClearsSpilledRedoEvents() {
+        undoAll();
+        assertTrue(mHistory.canRedo());
+
+        mHistory.addAction(new StrokeAction(new float[] {0, 0}, mStyle));
+        assertFalse(mHistory.canRedo());
+        assertEquals(0, mHistory.getRedoCount());
+        assertEquals(1, mHistory.getUndoCount());
+    }
+}
@@ -0,0 +1,180 @@
+package cse340.undo.history;
+
+import android.graphics.Paint;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cse340.undo.actions.AbstractReversibleAction;
+import cse340.undo.actions.StrokeAction;
+import cse340.undo.app.PaintStyle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Undoes and redoes strokes through an undo tree, and checks that adding a stroke after an undo
+ * starts a new branch, that redo follows the selected branch, and that the budget evicts the oldest
+ * strokes and the branches which split off before them.
+ */
+public class TreeHistoryTest {
+    /** Style of every stroke. */
+    private static final PaintStyle STYLE = PaintStyle.intern(0xFF000000, 8, Paint.Style.STROKE,
+            Paint.Cap.ROUND, Paint.Join.ROUND, true, false);
+
+    private TreeHistory mHistory;
+
+    @Before
+    public void setUp() {
+        mHistory = new TreeHistory(Long.MAX_VALUE);
+    }
+
+    private static StrokeAction stroke() {
+        return new StrokeAction(new float[] {0, 0, 1, 1}, STYLE);
+    }
+
+    /**
+     * Adds strokes to the history.
+     *
+     * @return The strokes, in the order they were added.
+     */
+    private StrokeAction[] add(int count) {
+        StrokeAction[] strokes = new StrokeAction[count];
+        for (int i = 0; i < count; i++) {
+            strokes[i] = stroke();
+            assertFalse(mHistory.addAction(strokes[i]));
+        }
+        return strokes;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveBudget() {
+        new TreeHistory(0);
+    }
+
+    @Test
+    public void undoesAndRedoesInOrder() {
+        StrokeAction[] strokes = add(3);
+        assertEquals(3, mHistory.getUndoCount());
+        assertFalse(mHistory.canRedo());
+
+        for (int i = 2; i >= 0; i--) {
+            assertSame(strokes[i], mHistory.undo());
+        }
+        assertNull(mHistory.undo());
+        assertFalse(mHistory.canUndo());
+        assertEquals(3, mHistory.getRedoCount());
+
+        for (int i = 0; i < 3; i++) {
+            assertSame(strokes[i], mHistory.redo());
+        }
+        assertNull(mHistory.redo());
+        assertEquals(3, mHistory.getUndoCount());
+    }
+
+    @Test
+    public void addingAfterUndoStartsNewBranch() {
+        StrokeAction[] strokes = add(2);
+        mHistory.undo();
+        StrokeAction branch = stroke();
+        assertFalse(mHistory.addAction(branch));
+        assertFalse(mHistory.canRedo());
+
+        // Both branches leave the first stroke, and the newest one is selected.
+        assertSame(branch, mHistory.undo());
+        assertEquals(2, mHistory.getBranchCount());
+        assertEquals(1, mHistory.getSelectedBranch());
+        assertSame(branch, mHistory.redo());
+
+        mHistory.undo();
+        assertSame(strokes[0], mHistory.undo());
+        assertEquals(1, mHistory.getBranchCount());
+        assertEquals(2, mHistory.getRedoCount());
+    }
+
+    @Test
+    public void redoFollowsSelectedBranch() {
+        StrokeAction[] strokes = add(3);
+        mHistory.undo();
+        mHistory.undo();
+        StrokeAction branch = stroke();
+        mHistory.addAction(branch);
+        mHistory.undo();
+
+        assertTrue(mHistory.selectBranch(0));
+        assertEquals(0, mHistory.getSelectedBranch());
+        assertEquals(2, mHistory.getRedoCount());
+        assertSame(strokes[1], mHistory.redo());
+        assertSame(strokes[2], mHistory.redo());
+        assertNull(mHistory.redo());
+
+        // Undo keeps the branch it leaves selected.
+        mHistory.undo();
+        mHistory.undo();
+        assertEquals(0, mHistory.getSelectedBranch());
+        assertTrue(mHistory.selectBranch(1));
+        assertSame(branch, mHistory.redo());
+        assertFalse(mHistory.canRedo());
+    }
+
+    @Test
+    public void selectBranchRejectsMissingBranches() {
+        add(1);
+        assertEquals(0, mHistory.getBranchCount());
+        assertEquals(-1, mHistory.getSelectedBranch());
+        assertFalse(mHistory.selectBranch(0));
+
+        mHistory.undo();
+        assertFalse(mHistory.selectBranch(-1));
+        assertFalse(mHistory.selectBranch(1));
+        assertEquals(0, mHistory.getSelectedBranch());
+    }
+
+    @Test
+    public void budgetEvictsOldestActions() {
+        int size = stroke().getRetainedSize();
+        mHistory = new TreeHistory(3L * size);
+        StrokeAction[] strokes = add(5);
+        assertEquals(3, mHistory.getUndoCount());
+
+        for (int i = 4; i >= 2; i--) {
+            assertSame(strokes[i], mHistory.undo());
+        }
+        assertNull(mHistory.undo());
+    }
+
+    @Test
+    public void budgetEvictsSiblingBranchesFirst() {
+        int size = stroke().getRetainedSize();
+        mHistory = new TreeHistory(3L * size);
+        add(1);
+        mHistory.undo();
+        StrokeAction[] branch = add(3);
+
+        // The abandoned first stroke is evicted instead of the oldest stroke on the current branch.
+        assertEquals(3, mHistory.getUndoCount());
+        for (int i = 2; i >= 0; i--) {
+            assertSame(branch[i], mHistory.undo());
+        }
+        assertFalse(mHistory.canUndo());
+        assertEquals(1, mHistory.getBranchCount());
+    }
+
+    @Test
+    public void clearDropsEveryBranch() {
+        add(2);
+        mHistory.undo();
+        add(1);
+        mHistory.clear();
+
+        assertFalse(mHistory.canUndo());
+        assertFalse(mHistory.canRedo());
+        assertEquals(0, mHistory.getBranchCount());
+        AbstractReversibleAction action = stroke();
+        mHistory.addAction(action);
+        assertSame(action, mHistory.undo());
+    }
+}